@@ -0,0 +1,38 @@
+package mesme;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * MweVectorKernel scores with the (incubating) Java Vector API: each step gathers a register's worth of weights
+ * by feature index and accumulates their products with the feature values, with a scalar loop for the tail.
+ * It needs the jdk.incubator.vector module, so it is kept out of src and built separately:
+ *   javac --add-modules jdk.incubator.vector -cp <mesme classes> -d <mesme classes> src-vector/mesme/MweVectorKernel.java
+ * and used only when the JVM is also started with --add-modules jdk.incubator.vector (see
+ * MweActiveLearner.setVectorScoring). Lanes are added in a different order from libsvm, so decision values can
+ * differ from the scalar kernel in the last bits.
+ */
+public class MweVectorKernel implements MweScoringKernel {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	public void dotProducts (double[] weights, int[] indices, double[] values, int[] starts, int count, double[] sums) {
+		int lanes = SPECIES.length();
+		for (int c=0;c<count;++c) {
+			int k = starts[c];
+			int end = starts[c+1];
+			int bound = k + SPECIES.loopBound(end - k);
+			double sum = 0;
+			if (k < bound) {
+				DoubleVector acc = DoubleVector.zero(SPECIES);
+				for (;k<bound;k+=lanes) {
+					DoubleVector w = DoubleVector.fromArray(SPECIES, weights, 0, indices, k);
+					acc = w.fma(DoubleVector.fromArray(SPECIES, values, k), acc);
+				}
+				sum = acc.reduceLanes(VectorOperators.ADD);
+			}
+			for (;k<end;++k) sum += weights[indices[k]] * values[k];
+			sums[c] = sum;
+		}
+	}
+}
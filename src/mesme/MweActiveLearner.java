@@ -1,12 +1,14 @@
 package mesme;
 
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
@@ -16,14 +18,33 @@ import java.util.LinkedList;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import libsvm.*;
 import org.tartarus.snowball.ext.*;
 
 public class MweActiveLearner {
 
+  /*
+   * The default models named in resources/modelConfig.txt are loaded lazily, each the first time it is used,
+   * so a chunker that never classifies never parses a model
+   */
   public MweActiveLearner () {
-  	loadDefaultModels();
+  	readModelConfig();
+  }
+
+  /*
+   * preload true loads every default model now, in parallel, rather than on first use
+   */
+  public MweActiveLearner (boolean preload) {
+  	readModelConfig();
+  	if (preload) preloadModels();
   }
   
 	private class FeaturePoint {
@@ -37,45 +58,188 @@ public class MweActiveLearner {
 	  }
 	}
 	
-	private svm_model currentModel = null;
-	private HashMap<String,svm_model> modelMap = new HashMap<String,svm_model>();
+	/*
+	 * A loaded model: the libsvm model and its folded linear form, if it has one. An entry is never changed, only
+	 * replaced in modelMap as a whole, so a scoring thread always sees a matching pair and never waits for a swap
+	 */
+	private static class ModelEntry {
+		final svm_model model;       // null for a model held only as linear weights
+		final MweLinearModel linear; // scored directly, null if not a two class linear model
+		final long version;
+		final String cacheName;      // score cache model name, new for each version
+
+		ModelEntry (String modelName, svm_model model, MweLinearModel linear, long version) {
+			this.model = model;
+			this.linear = linear;
+			this.version = version;
+			cacheName = modelName+"#"+version;
+		}
+	}
+
+	private ConcurrentHashMap<String,ModelEntry> modelMap = new ConcurrentHashMap<String,ModelEntry>();
+	private String defaultModelName = null;
+	private static final AtomicLong modelVersions = new AtomicLong(); // one counter per JVM, so versions are unique
+	private AtomicLong modelSwaps = new AtomicLong();
+	private MweModelSwapListener swapListener = null;
+	private ExecutorService retrainExecutor = null; // started by the first background retrain
+	private AtomicLong retrains = new AtomicLong();
+	private AtomicLong retrainMillis = new AtomicLong();
+	private volatile long lastRetrainMillis = 0;
+	private AtomicInteger retrainsRunning = new AtomicInteger();
+	private static final String MODEL_CONFIG = "resources/modelConfig.txt";
+	private HashMap<String,String> modelSources = new HashMap<String,String>(); // default model name to its resource
+	private ConcurrentHashMap<String,CompletableFuture<Void>> modelLoads = new ConcurrentHashMap<String,CompletableFuture<Void>>();
+	private ConcurrentHashMap<String,MweOnlineLearner> onlineLearners = new ConcurrentHashMap<String,MweOnlineLearner>();
+	private int onlinePublishRate = 50; // online updates between publishing the model used for scoring
+	private MweScoringKernel scoringKernel = new MweScalarKernel(); // batch dot products for linear models
+	private MweScoreCache scoreCache = new MweScoreCache(10000); // null if scores are not cached
+	private volatile MweTrainer trainer = new MweLibsvmTrainer();
 	
 	private int updateRate = 500; // default of 500 new samples to initiate re-training
 	private int newVectorNo = 0; // number of added vectors for next active learning cycle
 	private double confidenceLevel = 0.667; // confidence threshold at which to add training vectors
 	
-	private HashMap<String,LinkedList<FeaturePoint[]>> modelVectorMap = new HashMap<String,LinkedList<FeaturePoint[]>>();
-	private LinkedList<FeaturePoint[]> trainVectors;
+	private int trainingCapacity = 20000; // training rows kept per model, 0 for no limit
+	private int trainingSampling = MweTrainingBuffer.RESERVOIR;
+	private ConcurrentHashMap<String,MweTrainingBuffer> modelVectorMap = new ConcurrentHashMap<String,MweTrainingBuffer>();
+	private MweTrainingBuffer trainVectors;
 	
+  /*
+   * loadModel loads a libsvm text model or an MweModelFile binary model. A binary linear model is held only
+   * as its weights, with no svm_model
+   */
   public void loadModel (String modelName, String modelFilename) {
-    try {
-      svm_model model = svm.svm_load_model(modelFilename);
-      modelMap.put(modelName, model);
-      currentModel = model;
-    } catch (IOException e)  {
-    	System.err.println ("Can not load "+modelFilename+" Model not created.");
-    }  	
+    // replaces the default model, so wait for it if it is being loaded
+    CompletableFuture<Void> running = modelLoads.put(modelName, CompletableFuture.completedFuture(null));
+    if (running != null) running.join();
+    svm_model model;
+    MweLinearModel linear;
+    if (MweModelFile.isBinaryModel(modelFilename)) {
+    	MweModelFile file = MweModelFile.read(modelFilename);
+    	if (file == null) {
+    		System.err.println ("Can not load "+modelFilename+" Model not created.");
+    		return;
+    	}
+    	model = file.getModel();
+    	linear = file.getLinearModel();
+    	if (linear == null) linear = MweLinearModel.fromModel(model);
+    } else {
+    	try {
+    		model = svm.svm_load_model(modelFilename);
+    		linear = MweLinearModel.fromModel(model);
+    	} catch (IOException e)  {
+    		System.err.println ("Can not load "+modelFilename+" Model not created.");
+    		return;
+    	}
+    }
+    install(modelName, model, linear, -1);
+    reseedOnlineLearner(modelName, linear);
+  }
+
+  /*
+   * install publishes a model by swapping in a new entry for its name; scoring threads pick it up on their next
+   * lookup. trainingMillis is the time taken to train it, -1 if it was not trained here
+   */
+  private void install (String modelName, svm_model model, MweLinearModel linear, long trainingMillis) {
+    ModelEntry entry = new ModelEntry(modelName, model, linear, modelVersions.incrementAndGet());
+    ModelEntry old = modelMap.put(modelName, entry);
+    modelSwaps.incrementAndGet();
+    MweScoreCache cache = scoreCache;
+    if (cache != null && old != null) cache.invalidate(old.cacheName); // frees the old version's scores, which are no longer looked up
+    MweModelSwapListener listener = swapListener;
+    if (listener != null) listener.modelSwapped(modelName, entry.version, trainingMillis);
+  }
+
+  // online learning carries on from a new model
+  private void reseedOnlineLearner (String modelName, MweLinearModel linear) {
+    MweOnlineLearner online = onlineLearners.get(modelName);
+    if (online == null) return;
+    if (linear != null) onlineLearners.put(modelName, new MweOnlineLearner(linear, online.getAlgorithm()));
+    else onlineLearners.remove(modelName);
+  }
+
+  private ModelEntry entry (String modelName) {
+  	ensureLoaded(modelName);
+  	return modelMap.get(modelName);
   }
   
+  /*
+   * getLoadedModelNames lists the models loaded so far; default models not yet used are not listed
+   */
   public String[] getLoadedModelNames () {
-  	String[] names = (String[]) modelMap.keySet().toArray();
-  	return names;
+  	return modelMap.keySet().toArray(new String[0]);
   }
   
+  /*
+   * setDefaultModel chooses the model that training data is added for and that svmTrain retrains
+   */
   public void setDefaultModel (String modelName) {
-  	if (modelMap.containsKey(modelName)) {
-  		currentModel = modelMap.get(modelName);
-  		trainVectors = modelVectorMap.get(modelName);
-  		if (trainVectors==null) {
-  			trainVectors = new LinkedList<FeaturePoint[]>();
-  			modelVectorMap.put(modelName, trainVectors);
-  		}
+  	if (entry(modelName) != null) {
+  		defaultModelName = modelName;
+  		trainVectors = modelVectorMap.computeIfAbsent(modelName, name -> new MweTrainingBuffer(trainingCapacity, trainingSampling));
   	}
   }
   
   public void addTrainingData (LinkedList<FeaturePoint> fps) {
-		FeaturePoint[] vec = (FeaturePoint[]) fps.toArray();
-		trainVectors.add(vec);
+  	if (trainVectors == null) {
+  		System.err.println("No default model set for training data");
+  		return;
+  	}
+		// the first point is the class label, the rest are packed into the store
+		int count = fps.size() - 1;
+		if (count < 0) return;
+		Iterator<FeaturePoint> fpsIt = fps.iterator();
+		int label = (int) fpsIt.next().value;
+		int[] indices = new int[count];
+		double[] values = new double[count];
+		for (int i=0;i<count;++i) {
+			FeaturePoint fp = fpsIt.next();
+			indices[i] = fp.featureID;
+			values[i] = fp.value;
+		}
+		trainVectors.add(label, indices, values, count);
+	}
+
+	/*
+	 * addTrainingData adds a labelled vector to the default model's training data
+	 */
+	public void addTrainingData (MweFeatureVector vector, int label) {
+		if (trainVectors == null) {
+			System.err.println("No default model set for training data");
+			return;
+		}
+		trainVectors.add(label, vector);
+	}
+
+	/*
+	 * getTrainingData is the training data kept for a model, null if none has been added
+	 */
+	public MweTrainingBuffer getTrainingData (String modelName) {
+		return modelVectorMap.get(modelName);
+	}
+
+	/*
+	 * setTrainingCapacity bounds the training data kept for each model to a number of rows (0 for no bound),
+	 * shared equally between the classes, so retraining time and heap use stop growing; see MweTrainingBuffer.
+	 * The default is 20000
+	 */
+	public void setTrainingCapacity (int rows) {
+		trainingCapacity = Math.max(0, rows);
+		for (MweTrainingBuffer buffer : modelVectorMap.values()) buffer.setCapacity(trainingCapacity);
+	}
+
+	public int getTrainingCapacity () {
+		return trainingCapacity;
+	}
+
+	/*
+	 * setTrainingSampling chooses which samples a full training buffer keeps: MweTrainingBuffer.RESERVOIR (the
+	 * default), a uniform sample of all seen, or MweTrainingBuffer.RECENT, favouring recent samples
+	 */
+	public void setTrainingSampling (int sampling) {
+		if (sampling != MweTrainingBuffer.RESERVOIR && sampling != MweTrainingBuffer.RECENT) return;
+		trainingSampling = sampling;
+		for (MweTrainingBuffer buffer : modelVectorMap.values()) buffer.setSampling(sampling);
 	}
 	
 	public void addTrainingData (String vector) {
@@ -83,6 +247,52 @@ public class MweActiveLearner {
 		addTrainingData (fps);
 	}
 	
+	/*
+	 * setOnlineLearning starts learning a linear model online from labelled samples (see addLabelledSample), from
+	 * its current weights, with one of the MweOnlineLearner algorithms. Returns false if the model is not linear
+	 */
+	public boolean setOnlineLearning (String modelName, int algorithm) {
+		ModelEntry entry = entry(modelName);
+		if (entry == null || entry.linear == null) {
+			System.err.println("No linear model "+modelName+" to learn online");
+			return false;
+		}
+		onlineLearners.put(modelName, new MweOnlineLearner(entry.linear, algorithm));
+		return true;
+	}
+
+	public MweOnlineLearner getOnlineLearner (String modelName) {
+		return onlineLearners.get(modelName);
+	}
+
+	/*
+	 * setOnlinePublishRate sets how many online updates are made before the updated model is used for scoring
+	 */
+	public void setOnlinePublishRate (int updates) {
+		onlinePublishRate = Math.max(1, updates);
+	}
+
+	/*
+	 * addLabelledSample updates a model learning online with a sample and its class label. Returns false if the
+	 * model is not learning online
+	 */
+	public boolean addLabelledSample (String modelName, MweFeatureVector vector, int label) {
+		MweOnlineLearner online = onlineLearners.get(modelName);
+		if (online == null) return false;
+		online.update(vector, label);
+		if (online.getUpdates() % onlinePublishRate == 0) publishOnlineModel(modelName);
+		return true;
+	}
+
+	/*
+	 * publishOnlineModel makes the online learner's current weights the model used for scoring. The weights
+	 * stand alone, with no svm_model, as binary linear models do: the previous svm_model no longer matches them
+	 */
+	public void publishOnlineModel (String modelName) {
+		MweOnlineLearner online = onlineLearners.get(modelName);
+		if (online != null) install(modelName, null, online.getModel(), -1);
+	}
+
 	public void setUpdateRate (int sampleNo) {
 		if (sampleNo < 0) sampleNo = 0;
 		updateRate = sampleNo;
@@ -104,51 +314,270 @@ public class MweActiveLearner {
 		return confidenceLevel;
 	}
 
+	/*
+	 * svmTrain retrains the default model from its training data, on the caller's thread, saves it to modelFilename
+	 * (with the date appended if addDate) and swaps it in for scoring
+	 */
 	public void svmTrain(String modelFilename, boolean addDate) {
-    svm_problem prob = new svm_problem();
-    int dataCount = trainVectors.size();
-    prob.y = new double[dataCount];  // label
-    prob.l = dataCount;
-    prob.x = new svm_node[dataCount][]; // feature vector    
-
-    Iterator<FeaturePoint[]> tvIt = trainVectors.iterator();
-    int i = 0;
-    while (tvIt.hasNext()) {
-    	FeaturePoint[] vector = tvIt.next();
-    	prob.y[i] = vector[0].value;
-    	for (int j=1;j<=vector.length;++j) {
-        svm_node node = new svm_node();
-        node.index = vector[j].featureID;
-        node.value = vector[j].value;
-        prob.x[i][j-1] = node;
-    	}
-    	++i;
-    }
-    
-    svm_parameter param = new svm_parameter();
-    param.probability = 1;
-    param.gamma = 0.5;
-    param.nu = 0.5;
-    param.C = 1;
-    param.svm_type = svm_parameter.C_SVC;
-    param.kernel_type = svm_parameter.LINEAR;       
-    param.cache_size = 20000;
-    param.eps = 0.001;      
-
-    currentModel = svm.svm_train(prob, param);
-
-    Date timestamp = new Date();
-    SimpleDateFormat dateString = new SimpleDateFormat("yyMMddhhmmss");
-    if (addDate) {
-    	modelFilename = new String (modelFilename+"-"+dateString.format(timestamp));
-    }
-    try {
-      svm.svm_save_model(modelFilename, currentModel);
-    } catch (IOException e)  {
-    	System.err.println ("Can not save "+modelFilename+" Model not updated.");
-    }
+		if (defaultModelName == null) {
+			System.err.println("No default model set to train");
+			return;
+		}
+		train(defaultModelName, snapshot(trainVectors), modelFilename, addDate);
+	}
+
+	/*
+	 * retrainInBackground retrains a model from the training data added for it so far, on a background thread,
+	 * saves it to modelFilename (if not null, with the date appended if addDate) and swaps it in for scoring.
+	 * Scoring carries on with the old model meanwhile. The future gives whether a model was trained
+	 */
+	public CompletableFuture<Boolean> retrainInBackground(String modelName, String modelFilename, boolean addDate) {
+		MweTrainingStore vectors = snapshot(modelVectorMap.get(modelName));
+		synchronized (this) {
+			if (retrainExecutor == null) {
+				retrainExecutor = Executors.newSingleThreadExecutor(task -> {
+					Thread thread = new Thread(task, "mesme-retrain");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+		}
+		return CompletableFuture.supplyAsync(() -> train(modelName, vectors, modelFilename, addDate) != null, retrainExecutor);
+	}
+
+	private static MweTrainingStore snapshot (MweTrainingBuffer vectors) {
+		if (vectors == null) return new MweTrainingStore(1, 1);
+		return vectors.snapshot();
+	}
+
+	private svm_model train(String modelName, MweTrainingStore vectors, String modelFilename, boolean addDate) {
+		if (vectors.size() == 0) {
+			System.err.println("No training data for "+modelName);
+			return null;
+		}
+		retrainsRunning.incrementAndGet();
+		long start = System.currentTimeMillis();
+		try {
+			svm_model model = trainer.train(vectors);
+			if (model == null) {
+				System.err.println("Model for "+modelName+" not updated.");
+				return null;
+			}
+			if (model.nr_class < 2) {
+				System.err.println("Training data for "+modelName+" has only one class. Model not updated.");
+				return null;
+			}
+
+			if (modelFilename != null) {
+				Date timestamp = new Date();
+				SimpleDateFormat dateString = new SimpleDateFormat("yyMMddhhmmss");
+				if (addDate) {
+					modelFilename = new String (modelFilename+"-"+dateString.format(timestamp));
+				}
+				try {
+					svm.svm_save_model(modelFilename, model);
+				} catch (IOException e)  {
+					System.err.println ("Can not save "+modelFilename+" Model not updated.");
+				}
+			}
+			long millis = System.currentTimeMillis() - start;
+			retrains.incrementAndGet();
+			retrainMillis.addAndGet(millis);
+			lastRetrainMillis = millis;
+			MweLinearModel linear = MweLinearModel.fromModel(model);
+			install(modelName, model, linear, millis);
+			reseedOnlineLearner(modelName, linear);
+			return model;
+		} finally {
+			retrainsRunning.decrementAndGet();
+		}
+	}
+
+	/*
+	 * setTrainer chooses how svmTrain and retrainInBackground train models, e.g. MweLinearTrainer for fast
+	 * linear training; the default is libsvm's solver (MweLibsvmTrainer)
+	 */
+	public void setTrainer (MweTrainer trainer) {
+		if (trainer != null) this.trainer = trainer;
+	}
+
+	public MweTrainer getTrainer () {
+		return trainer;
+	}
+
+	/*
+	 * exportTrainingData writes the training data added for a model in SVM light format ("label index:value ..."),
+	 * as read by svm-train, MwePruner and MweTrainingBenchmark. Returns false if it can not be written
+	 */
+	public boolean exportTrainingData (String modelName, String vectorFilename) {
+		return snapshot(modelVectorMap.get(modelName)).write(vectorFilename);
+	}
+
+	public void setModelSwapListener (MweModelSwapListener listener) {
+		swapListener = listener;
+	}
+
+	/*
+	 * getModelVersion is the version of the model now used for scoring, 0 if none. Versions are drawn from one
+	 * counter for every learner in the JVM, so they increase with every swap and no two models share one
+	 */
+	public long getModelVersion (String modelName) {
+		ModelEntry entry = modelMap.get(modelName);
+		return entry == null ? 0 : entry.version;
+	}
+
+	/*
+	 * getVersionedName is the model's name with the version now used for scoring ("name#version"), loading the
+	 * model if need be. It changes with every swap, so statistics about a model's decisions keyed on it (see
+	 * MwePatternGate) are never applied to the model that replaces it
+	 */
+	public String getVersionedName (String modelName) {
+		ModelEntry entry = entry(modelName);
+		return entry == null ? modelName+"#0" : entry.cacheName;
+	}
+
+	public long getModelSwaps () {
+		return modelSwaps.get();
+	}
+
+	public long getRetrains () {
+		return retrains.get();
+	}
+
+	public long getTotalRetrainMillis () {
+		return retrainMillis.get();
+	}
+
+	public long getLastRetrainMillis () {
+		return lastRetrainMillis;
+	}
+
+	public boolean isRetraining () {
+		return retrainsRunning.get() > 0;
 	}
 	
+	/*
+	 * setScoreCacheSize sets how many candidate scores are cached (the default is 10000), 0 for no cache
+	 */
+	public void setScoreCacheSize (int entries) {
+		if (entries <= 0) scoreCache = null;
+		else scoreCache = new MweScoreCache(entries);
+	}
+
+	/*
+	 * setScoreCache shares a cache between learners, or removes the cache if null. Scores are keyed by model
+	 * version, which is unique to one learner's model, so learners never see each other's scores
+	 */
+	public void setScoreCache (MweScoreCache cache) {
+		scoreCache = cache;
+	}
+
+	public MweScoreCache getScoreCache () {
+		return scoreCache;
+	}
+
+	/*
+	 * evaluate scores a feature vector straight from its arrays, without a string or FeaturePoint list.
+	 * Scores are looked up in and added to the score cache
+	 */
+	public double[] evaluate(MweFeatureVector vector, String modelName) {
+		ModelEntry entry = entry(modelName); // one lookup, so a concurrent swap is seen whole or not at all
+		MweScoreCache cache = scoreCache;
+		if (cache == null || entry == null) return score(vector, entry);
+		double[] probEstimates = cache.get(entry.cacheName, vector);
+		if (probEstimates == null) {
+			probEstimates = score(vector, entry);
+			cache.put(entry.cacheName, vector, probEstimates);
+		}
+		return probEstimates;
+	}
+
+	private double[] score(MweFeatureVector vector, ModelEntry entry) {
+		double[] probEstimates = {0, 1.0};
+    if (entry == null) return probEstimates;
+    if (entry.linear != null) {
+    	entry.linear.predictProbability(vector.getIndices(), vector.getValues(), vector.size(), probEstimates);
+    	return probEstimates;
+    }
+		svm_node[] nodes = new svm_node[vector.size()];
+		for (int i=0;i<nodes.length;++i) {
+			nodes[i] = new svm_node();
+			nodes[i].index = vector.index(i);
+			nodes[i].value = vector.value(i);
+		}
+		svm.svm_predict_probability(entry.model, nodes, probEstimates);
+		return probEstimates;
+	}
+
+	/*
+	 * evaluate scores a batch of feature vectors against one model, returning the class confidences of each
+	 */
+	public double[][] evaluate(MweFeatureVector[] vectors, int count, String modelName) {
+		ModelEntry entry = entry(modelName);
+		MweScoreCache cache = scoreCache;
+		if (cache == null || entry == null) return score(vectors, count, entry);
+		// score only the vectors not cached, still as one batch
+		double[][] probEstimates = new double[count][];
+		MweFeatureVector[] missed = new MweFeatureVector[count];
+		int[] missedAt = new int[count];
+		int misses = 0;
+		for (int i=0;i<count;++i) {
+			probEstimates[i] = cache.get(entry.cacheName, vectors[i]);
+			if (probEstimates[i] == null) {
+				missed[misses] = vectors[i];
+				missedAt[misses++] = i;
+			}
+		}
+		if (misses == 0) return probEstimates;
+		double[][] scored = score(missed, misses, entry);
+		for (int m=0;m<misses;++m) {
+			probEstimates[missedAt[m]] = scored[m];
+			cache.put(entry.cacheName, missed[m], scored[m]);
+		}
+		return probEstimates;
+	}
+
+	private double[][] score(MweFeatureVector[] vectors, int count, ModelEntry entry) {
+		if (entry != null && entry.linear != null) return entry.linear.predictProbabilities(vectors, count, scoringKernel);
+		double[][] probEstimates = new double[count][];
+		for (int i=0;i<count;++i) probEstimates[i] = score(vectors[i], entry);
+		return probEstimates;
+	}
+
+	/*
+	 * setVectorScoring switches batch scoring of linear models to the SIMD MweVectorKernel, if it was built and
+	 * the JVM runs with --add-modules jdk.incubator.vector, otherwise it stays on the scalar kernel. It applies to
+	 * mapped and quantized binary models too. Returns whether the vector kernel is in use
+	 */
+	public boolean setVectorScoring (boolean vectorOn) {
+		scoringKernel = new MweScalarKernel();
+		if (!vectorOn) return false;
+		MweScoringKernel kernel = loadVectorKernel();
+		if (kernel == null) return false;
+		scoringKernel = kernel;
+		return true;
+	}
+
+	public MweScoringKernel getScoringKernel () {
+		return scoringKernel;
+	}
+
+	/*
+	 * loadVectorKernel returns an MweVectorKernel, or null if the class or the jdk.incubator.vector module is missing
+	 */
+	static MweScoringKernel loadVectorKernel () {
+		try {
+			MweScoringKernel kernel = (MweScoringKernel) Class.forName("mesme.MweVectorKernel").getDeclaredConstructor().newInstance();
+			double[] sums = new double[1];
+			kernel.dotProducts(new double[] {2}, new int[] {0}, new double[] {3}, new int[] {0, 1}, 1, sums); // links the module
+			if (sums[0] == 6) return kernel;
+		} catch (Exception | LinkageError e) {
+			// not built, or the module was not added to the JVM
+		}
+		System.err.println("Vector API scoring not available, using scalar scoring");
+		return null;
+	}
+
 // Currently only two class - will need to adapt for multiple MWE classes
 	public double[] evaluate(String vector, String modelName) {
 		LinkedList<FeaturePoint> fps = decodedVectorString (vector);
@@ -158,9 +587,22 @@ public class MweActiveLearner {
 	public double[] evaluate(LinkedList<FeaturePoint> fps, String modelName) { // Now need to create multiple model support, train and test!
 		int totalClasses = 2;
 		double[] probEstimates = {0, 1.0};
-		currentModel = modelMap.get(modelName);
-    if (currentModel==null) return probEstimates;
+		ModelEntry entry = entry(modelName);
     int vectorLength = fps.size();
+
+    if (entry == null) return probEstimates;
+    MweLinearModel linear = entry.linear;
+    if (linear != null) {
+    	int[] indices = new int[vectorLength];
+    	double[] values = new double[vectorLength];
+    	int i = 0;
+    	for (FeaturePoint fp : fps) {
+    		indices[i] = fp.featureID;
+    		values[i++] = fp.value;
+    	}
+    	linear.predictProbability(indices, values, vectorLength, probEstimates);
+    	return probEstimates;
+    }
 		svm_node[] nodes = new svm_node[vectorLength];
 
 		Iterator<FeaturePoint> fpsIt = fps.iterator();
@@ -174,8 +616,8 @@ public class MweActiveLearner {
 		}
 
 		int[] labels = new int[totalClasses];
-		svm.svm_get_labels(currentModel, labels); // not sure we need these really
-		double v = svm.svm_predict_probability(currentModel, nodes, probEstimates);
+		svm.svm_get_labels(entry.model, labels); // not sure we need these really
+		double v = svm.svm_predict_probability(entry.model, nodes, probEstimates);
 
 		return probEstimates;
 	}
@@ -211,37 +653,91 @@ public class MweActiveLearner {
 	}	
 
 	/*
-	 * load default models for MWEs based on training from wiki50 corpus. These models can be over-ridden
-	 * but provide a starting point. The models are stored in the resource folder under src.
+	 * Default models for MWEs are based on training from wiki50 corpus. These models can be over-ridden
+	 * but provide a starting point. resources/modelConfig.txt names each model and its file under resources;
+	 * both are read as class path resources, so they also load from inside a jar.
 	 */
-	private void loadDefaultModels() {
-
-		//Get file from resources folder
-		ClassLoader classLoader = getClass().getClassLoader();
-		File file = new File(classLoader.getResource("./resources/modelConfig.txt").getFile());
-
-		try (Scanner scanner = new Scanner(file)) {
-
+	private void readModelConfig () {
+		InputStream config = MweActiveLearner.class.getClassLoader().getResourceAsStream(MODEL_CONFIG);
+		if (config == null) {
+			System.err.println("Missing resource: "+MODEL_CONFIG);
+			return;
+		}
+		try (Scanner scanner = new Scanner(config, "UTF-8")) {
 			while (scanner.hasNextLine()) {
-				String line = scanner.nextLine();
+				String line = scanner.nextLine().trim();
+				if (line.indexOf(' ') < 0) continue;
 				// line should hold name of svm model and the model filename
 				String modelName = line.substring(0, line.indexOf(" "));
-				String modelFilename = line.substring(line.indexOf(" ")+1);
-				if (!modelFilename.startsWith("./resources/")) modelFilename = new String("./resources/"+modelFilename);
-				URL resource = classLoader.getResource(modelFilename);
-			  if (resource != null) {
-					modelFilename = resource.getFile();
-  				loadModel(modelName, modelFilename);
-	  		}
-				else {
-					System.err.println("Missing resource: "+modelFilename);
-				}
+				String modelFilename = line.substring(line.indexOf(" ")+1).trim();
+				if (modelFilename.startsWith("./")) modelFilename = modelFilename.substring(2);
+				if (!modelFilename.startsWith("resources/")) modelFilename = "resources/"+modelFilename;
+				modelSources.put(modelName, modelFilename);
+			}
+		}
+	}
+
+	/*
+	 * preloadModels loads every default model not yet loaded, in parallel, and waits for them
+	 */
+	public void preloadModels () {
+		LinkedList<CompletableFuture<Void>> loads = new LinkedList<CompletableFuture<Void>>();
+		for (String modelName : modelSources.keySet()) loads.add(startLoad(modelName, true));
+		for (CompletableFuture<Void> load : loads) load.join();
+	}
+
+	/*
+	 * ensureLoaded loads a default model the first time it is asked for. Each model is loaded once; a caller
+	 * asking while it loads waits for it
+	 */
+	private void ensureLoaded (String modelName) {
+		CompletableFuture<Void> load = modelLoads.get(modelName);
+		if (load == null) {
+			if (!modelSources.containsKey(modelName)) return;
+			load = startLoad(modelName, false);
+		}
+		load.join();
+	}
+
+	private CompletableFuture<Void> startLoad (String modelName, boolean inBackground) {
+		CompletableFuture<Void> load = new CompletableFuture<Void>();
+		CompletableFuture<Void> running = modelLoads.putIfAbsent(modelName, load);
+		if (running != null) return running;
+		Runnable task = () -> {
+			try {
+				loadDefaultModel(modelName);
+			} finally {
+				load.complete(null);
 			}
-			scanner.close();
+		};
+		if (inBackground) ForkJoinPool.commonPool().execute(task); else task.run();
+		return load;
+	}
 
-		} catch (Exception e) {
-			e.printStackTrace();
+	/*
+	 * loadDefaultModel loads a model named in modelConfig.txt. A binary model that is a plain file on the class
+	 * path is mapped (see MweModelFile.read) so its pages are shared; only a model inside a jar is read from a stream
+	 */
+	private void loadDefaultModel (String modelName) {
+		String resource = modelSources.get(modelName);
+		URL url = MweActiveLearner.class.getClassLoader().getResource(resource);
+		if (url == null) {
+			System.err.println("Missing resource: "+resource);
+			return;
+		}
+		MweModelFile file;
+		try {
+			String path = "file".equals(url.getProtocol()) ? Paths.get(url.toURI()).toString() : null;
+			if (path != null && MweModelFile.isBinaryModel(path)) file = MweModelFile.read(path);
+			else file = MweModelFile.load(url.openStream(), resource);
+		} catch (IOException | URISyntaxException | IllegalArgumentException e) {
+			System.err.println("Can not read model "+resource);
+			return;
 		}
+		if (file == null) return;
+		MweLinearModel linear = file.getLinearModel();
+		if (linear == null) linear = MweLinearModel.fromModel(file.getModel());
+		install(modelName, file.getModel(), linear, -1);
 	}
 	
 	public static void main (String args[]) {
@@ -250,7 +746,6 @@ public class MweActiveLearner {
 			System.err.println("Usage: MweActiveLearner trainingFilename modelFilename [testFilename] [learning rate]");
 			System.exit(-1);
 		}
-		MweActiveLearner learner = new MweActiveLearner();
-		learner.loadDefaultModels();
+		MweActiveLearner learner = new MweActiveLearner(true);
 	}
 }
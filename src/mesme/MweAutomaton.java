@@ -0,0 +1,273 @@
+package mesme;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * MweAutomaton is the compiled form of a MweStateEngine definition.
+ * POS tags are given small integer IDs, with ID 0 reserved for the "**" default tag, and every state holds a dense
+ * row of actions and next states indexed by tag ID. Tags that a state does not list are filled from its "**" entry
+ * at compile time, so a step is just two array loads.
+ * An automaton is immutable once built; all run state lives in an MweEngineCursor.
+ */
+public final class MweAutomaton {
+	public static final String DEFAULT_TAG = "**";
+	public static final int DEFAULT_TAG_ID = 0;
+
+	private final HashMap<String, Integer> tagIDs;
+	private final HashMap<String, Integer> stateIDs;
+	private final String[] tagNames;
+	private final String[] stateNames;
+	private final int tagCount;
+	private final short[] actions;    // action code for state * tagCount + tagID
+	private final short[] nextStates; // next state for state * tagCount + tagID
+	private final boolean[] listed;   // cell has its own definition row, null if built from compiled tables
+
+	/*
+	 * Builds the tables from parallel columns of a STATE, TAG, ACTION, NEXT-STATE definition.
+	 * States and tags are numbered in order of first appearance, so the first specified state is state 0.
+	 * A state without a "**" entry does nothing and stays put on an unlisted tag.
+	 */
+	public MweAutomaton (String[] states, String[] tags, int[] actionCodes, String[] next) {
+		int rows = states.length;
+		tagIDs = new HashMap<String, Integer>();
+		stateIDs = new HashMap<String, Integer>();
+		HashMap<String, Integer> tagIndex = tagIDs;
+		tagIndex.put(DEFAULT_TAG, DEFAULT_TAG_ID);
+		for (int i=0;i<rows;++i) {
+			numberState(states[i]);
+			if (!tagIndex.containsKey(tags[i])) tagIndex.put(tags[i], tagIndex.size());
+			numberState(next[i]);
+		}
+		tagCount = tagIndex.size();
+		tagNames = new String[tagCount];
+		for (String tag : tagIndex.keySet()) tagNames[tagIndex.get(tag)] = tag;
+		stateNames = new String[stateIDs.size()];
+		for (String state : stateIDs.keySet()) stateNames[stateIDs.get(state)] = state;
+
+		int stateCount = stateNames.length;
+		actions = new short[stateCount * tagCount];
+		nextStates = new short[stateCount * tagCount];
+		listed = new boolean[stateCount * tagCount];
+		for (int s=0;s<stateCount;++s) {
+			for (int t=0;t<tagCount;++t) nextStates[s * tagCount + t] = (short) s;
+		}
+		for (int i=0;i<rows;++i) {
+			int cell = stateIDs.get(states[i]) * tagCount + tagIndex.get(tags[i]);
+			actions[cell] = (short) actionCodes[i];
+			nextStates[cell] = (short) (int) stateIDs.get(next[i]);
+			listed[cell] = true;
+		}
+		// fill unlisted tags from the default column
+		for (int s=0;s<stateCount;++s) {
+			int row = s * tagCount;
+			for (int t=1;t<tagCount;++t) {
+				if (!listed[row + t]) {
+					actions[row + t] = actions[row];
+					nextStates[row + t] = nextStates[row];
+				}
+			}
+		}
+	}
+
+	/*
+	 * Builds an automaton from tables that are already laid out, as produced by MweEngineCompiler.
+	 * Several names may map to the same tag or state ID; the name arrays hold one representative name per ID.
+	 */
+	MweAutomaton (HashMap<String, Integer> tagIDs, String[] tagNames, HashMap<String, Integer> stateIDs, String[] stateNames,
+			short[] actions, short[] nextStates) {
+		this.tagIDs = tagIDs;
+		this.tagNames = tagNames;
+		this.stateIDs = stateIDs;
+		this.stateNames = stateNames;
+		this.tagCount = tagNames.length;
+		this.actions = actions;
+		this.nextStates = nextStates;
+		listed = null;
+	}
+
+	private void numberState (String stateName) {
+		if (!stateIDs.containsKey(stateName)) stateIDs.put(stateName, stateIDs.size());
+	}
+
+	/*
+	 * compile builds a minimised automaton from a 4 column definition table such as those in MweEngineDefinition
+	 * Returns null if the table is not a whole number of rows
+	 */
+	public static MweAutomaton compile (String[] stateSpec) {
+		if (stateSpec.length % 4 != 0) return null;
+		return new MweEngineCompiler(stateSpec).compile();
+	}
+
+	/*
+	 * expand builds the automaton exactly as a 4 column definition table is written: every defined state and tag
+	 * keeps its own row and column, nothing is merged or dropped. It steps as the compiled automaton does, so it
+	 * can stand in for it where counts must refer to the definition rows, as in MweProfilingCursor.
+	 * Returns null if the table is not a whole number of rows
+	 */
+	public static MweAutomaton expand (String[] stateSpec) {
+		if (stateSpec.length % 4 != 0) return null;
+		return new MweEngineCompiler(stateSpec).expand();
+	}
+
+	/*
+	 * Shared automata for the default English engines. They are compiled once, on first use, and are safe to 
+	 * step from any number of threads through their own MweEngineCursor.
+	 */
+	private static class DefaultEngines {
+		static final MweAutomaton nominal = compile(MweEngineDefinition.englishNominalCompounds);
+		static final MweAutomaton verbal = compile(MweEngineDefinition.englishVerbalCompounds);
+	}
+
+	public static MweAutomaton englishNominalCompounds () {
+		return DefaultEngines.nominal;
+	}
+
+	public static MweAutomaton englishVerbalCompounds () {
+		return DefaultEngines.verbal;
+	}
+
+	/*
+	 * tagID returns the ID of a POS tag, or DEFAULT_TAG_ID if no state in the engine lists the tag
+	 */
+	public int tagID (String tag) {
+		Integer id = tagIDs.get(tag);
+		if (id == null) return DEFAULT_TAG_ID;
+		return id;
+	}
+
+	public String tagName (int tagID) {
+		return tagNames[tagID];
+	}
+
+	public int getTagCount () {
+		return tagCount;
+	}
+
+	/*
+	 * stateID returns the number of a named state, or -1 if the state is not defined
+	 */
+	public int stateID (String stateName) {
+		Integer id = stateIDs.get(stateName);
+		if (id == null) return -1;
+		return id;
+	}
+
+	public String stateName (int stateID) {
+		return stateNames[stateID];
+	}
+
+	public int getStateCount () {
+		return stateNames.length;
+	}
+
+	public int getStartState () {
+		return 0;
+	}
+
+	/*
+	 * tableHash identifies the transition tables, so code generated from an automaton can check it is being run 
+	 * against the same tables
+	 */
+	public int tableHash () {
+		int h = Arrays.hashCode(actions);
+		h = 31 * h + Arrays.hashCode(nextStates);
+		return 31 * h + tagCount;
+	}
+
+	/*
+	 * isListed is true if the definition has a row for this state and tag, false if the cell was filled from the
+	 * state's "**" row (always for the "**" column, which holds every tag no state lists). Only an automaton built
+	 * from definition rows knows; for compiled tables, whose states and tags may be merged, it is always false
+	 */
+	public boolean isListed (int state, int tagID) {
+		if (listed == null || tagID == DEFAULT_TAG_ID) return false;
+		return listed[state * tagCount + tagID];
+	}
+
+	/*
+	 * isExpanded is true if the automaton was built from definition rows, without merging
+	 */
+	public boolean isExpanded () {
+		return listed != null;
+	}
+
+	public int action (int state, int tagID) {
+		return actions[state * tagCount + tagID];
+	}
+
+	public int nextState (int state, int tagID) {
+		return nextStates[state * tagCount + tagID];
+	}
+
+	/*
+	 * writeTables writes the automaton in the binary layout read back by readTables: the representative tag and 
+	 * state names, every name to ID mapping (so merged tags and states keep their aliases) and the two tables
+	 */
+	void writeTables (DataOutputStream out) throws IOException {
+		out.writeInt(tagCount);
+		out.writeInt(stateNames.length);
+		for (String name : tagNames) writeName(out, name);
+		for (String name : stateNames) writeName(out, name);
+		writeIDs(out, tagIDs);
+		writeIDs(out, stateIDs);
+		for (short a : actions) out.writeShort(a);
+		for (short n : nextStates) out.writeShort(n);
+	}
+
+	private static void writeIDs (DataOutputStream out, HashMap<String, Integer> ids) throws IOException {
+		out.writeInt(ids.size());
+		for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+			writeName(out, entry.getKey());
+			out.writeShort(entry.getValue());
+		}
+	}
+
+	private static void writeName (DataOutputStream out, String name) throws IOException {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	/*
+	 * readTables builds an automaton from tables written by writeTables, starting at the buffer's position
+	 */
+	static MweAutomaton readTables (ByteBuffer in) {
+		int tags = in.getInt();
+		int states = in.getInt();
+		String[] tagNames = new String[tags];
+		String[] stateNames = new String[states];
+		for (int i=0;i<tags;++i) tagNames[i] = readName(in);
+		for (int i=0;i<states;++i) stateNames[i] = readName(in);
+		HashMap<String, Integer> tagIDs = readIDs(in);
+		HashMap<String, Integer> stateIDs = readIDs(in);
+		short[] actions = new short[states * tags];
+		short[] nextStates = new short[states * tags];
+		in.asShortBuffer().get(actions);
+		in.position(in.position() + actions.length * 2);
+		in.asShortBuffer().get(nextStates);
+		in.position(in.position() + nextStates.length * 2);
+		return new MweAutomaton(tagIDs, tagNames, stateIDs, stateNames, actions, nextStates);
+	}
+
+	private static HashMap<String, Integer> readIDs (ByteBuffer in) {
+		int count = in.getInt();
+		HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		for (int i=0;i<count;++i) {
+			String name = readName(in);
+			ids.put(name, (int) in.getShort());
+		}
+		return ids;
+	}
+
+	private static String readName (ByteBuffer in) {
+		byte[] bytes = new byte[in.getShort()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
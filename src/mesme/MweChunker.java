@@ -3,16 +3,18 @@ package mesme;
 import java.util.*;
 
 import mesme.MweActiveLearner;
-import mesme.MweEngineDefinition;
-import mesme.MweStateEngine;
+import mesme.MweAutomaton;
+import mesme.MweEngineCursor;
 import mesme.MweSvmVectorMaker;
 
 import java.io.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class MweChunker {
-	// Required state engines
-  private MweStateEngine nounPhraseEngine = new MweStateEngine();
-  private MweStateEngine verbPhraseEngine = new MweStateEngine();
+	// Required state engines - cursors over the shared compiled automata
+  private MweEngineCursor nounPhraseEngine;
+  private MweEngineCursor verbPhraseEngine;
   
   private HashSet<String> posTagSet = new HashSet<String>();
   private String[] posTagList = {"$", "``", "''", "(", ")", ",", "--", ".", ":", "CC", "CD", "DT", "EX", "FW", "IN", "JJ", "JJR",
@@ -55,9 +57,13 @@ public class MweChunker {
   }
   
   /* chunker output lists - should be re-factored to be combined lists for each mwe type! */
-	private LinkedList<String> npChunks = new LinkedList<String>();
-  private LinkedList<String> lvcChunks = new LinkedList<String>();
-	private LinkedList<String> vpcChunks = new LinkedList<String>();
+	private LinkedList<MweSpan> npSpans = new LinkedList<MweSpan>();
+  private LinkedList<MweSpan> lvcSpans = new LinkedList<MweSpan>();
+	private LinkedList<MweSpan> vpcSpans = new LinkedList<MweSpan>();
+	private String[] chunkTokens = new String[0]; // tokens of the last chunked document, for building phrases
+	private LinkedList<String> npChunks = null;  // phrase lists are built from the spans when first asked for
+  private LinkedList<String> lvcChunks = null;
+	private LinkedList<String> vpcChunks = null;
 	private LinkedList<String> pronouns = new LinkedList<String>();
 	private LinkedList<Integer> npPositions = new LinkedList<Integer>();
 	private LinkedList<Integer> lvcPositions = new LinkedList<Integer>();
@@ -65,15 +71,20 @@ public class MweChunker {
 	private LinkedList<Integer> npEndpoints = new LinkedList<Integer>();
 	private LinkedList<Integer> lvcEndpoints = new LinkedList<Integer>();
 	private LinkedList<Integer> vpcEndpoints = new LinkedList<Integer>();
-	private LinkedList<String> npVectors = new LinkedList<String>();
+	private LinkedList<MweFeatureVector> npFeatures = new LinkedList<MweFeatureVector>(); // null for a single word NPC
+  private LinkedList<MweFeatureVector> lvcFeatures = new LinkedList<MweFeatureVector>();
+	private LinkedList<MweFeatureVector> vpcFeatures = new LinkedList<MweFeatureVector>();
+	private LinkedList<String> npVectors = new LinkedList<String>(); // vector strings, brought up to date with the features when asked for
   private LinkedList<String> lvcVectors = new LinkedList<String>();
 	private LinkedList<String> vpcVectors = new LinkedList<String>();
+	private MweFeatureVector features = new MweFeatureVector(); // reused for every candidate
 	private LinkedList<String[]> npTags = new LinkedList<String[]>();
   private LinkedList<String[]> lvcTags = new LinkedList<String[]>();
 	private LinkedList<String[]> vpcTags = new LinkedList<String[]>();
 
 	private MweActiveLearner activeLearner = new MweActiveLearner();
 	private boolean learning = false;
+	private boolean ruleOnly = false; // no vectors or classification, see setRuleOnlyMode
 	private double thresholdNPC = 0.5;
 	private double thresholdVPC = 0.5;
 	private double thresholdLVC = 0.5;
@@ -87,9 +98,177 @@ public class MweChunker {
     vectorMaker = new MweSvmVectorMaker(posTagSet, orthoSet);
   }
   
+  /*
+   * The generated engines are used when they match the compiled definitions, otherwise (or if the interpreted
+   * engines are requested) the cursors run the tables directly
+   */
+  private boolean interpretedEngines = false;
+  private boolean profiling = false;
+  private MweAutomaton nominalEngine = MweAutomaton.englishNominalCompounds();
+  private MweAutomaton verbalEngine = MweAutomaton.englishVerbalCompounds();
+  // definition rows of the engines, profiled unminimised; null if an engine was set as an automaton
+  private String[] nominalDefinition = MweEngineDefinition.englishNominalCompounds;
+  private String[] verbalDefinition = MweEngineDefinition.englishVerbalCompounds;
+
   private void initEngines () {
-  	nounPhraseEngine.initialise(MweEngineDefinition.englishNominalCompounds);
-  	verbPhraseEngine.initialise(MweEngineDefinition.englishVerbalCompounds);
+  	if (profiling) {
+  		nounPhraseEngine = new MweProfilingCursor(profiledEngine(nominalEngine, nominalDefinition));
+  		verbPhraseEngine = new MweProfilingCursor(profiledEngine(verbalEngine, verbalDefinition));
+  	} else {
+  		nounPhraseEngine = newCursor(nominalEngine);
+  		verbPhraseEngine = newCursor(verbalEngine);
+  	}
+  	setEngine(0, nounPhraseEngine, new NounPhraseHandler());
+  	setEngine(1, verbPhraseEngine, new VerbPhraseHandler());
+  }
+
+  /*
+   * profiledEngine is the unminimised automaton of an engine's definition, so the profile counts its own states
+   * and tags, or the engine itself if its definition is not known
+   */
+  private static MweAutomaton profiledEngine (MweAutomaton engine, String[] definition) {
+  	if (engine.isExpanded() || definition == null) return engine;
+  	MweAutomaton expanded = MweAutomaton.expand(definition);
+  	return expanded != null ? expanded : engine;
+  }
+
+  private MweEngineCursor newCursor (MweAutomaton engine) {
+  	if (!interpretedEngines && MweNominalCompoundsEngine.matches(engine)) return new MweNominalCompoundsEngine(engine);
+  	if (!interpretedEngines && MweVerbalCompoundsEngine.matches(engine)) return new MweVerbalCompoundsEngine(engine);
+  	return new MweEngineCursor(engine);
+  }
+
+  /*
+   * Engines stepped by chunk, in registration order. The noun and verb phrase engines are always the first two
+   */
+  private ArrayList<MweEngineCursor> engines = new ArrayList<MweEngineCursor>();
+  private ArrayList<MweSpanHandler> handlers = new ArrayList<MweSpanHandler>();
+
+  /*
+   * registerEngine adds a further MWE engine to the chunker's single pass. Its extractions are passed to the 
+   * handler, in document order, after the noun and verb phrase extractions have been processed
+   */
+  public void registerEngine (MweEngineCursor engine, MweSpanHandler handler) {
+  	engines.add(engine);
+  	handlers.add(handler);
+  }
+
+  /*
+   * openSession starts a streaming session that chunks a document fed in fragments, reporting each accepted
+   * MWE to the listener as soon as it can be classified. The session uses fresh cursors for every registered 
+   * engine but this chunker's handlers, settings and models, so the chunker should only be used from the
+   * session's thread while the session is open
+   */
+  public MweChunkerSession openSession (MweListener listener) {
+  	int engineCount = engines.size();
+  	MweEngineCursor[] cursors = new MweEngineCursor[engineCount];
+  	for (int e=0;e<engineCount;++e) cursors[e] = engines.get(e).newCursor();
+  	return new MweChunkerSession(this, cursors, handlers.toArray(new MweSpanHandler[engineCount]), listener);
+  }
+
+  String mapTag (String tag) {
+  	if (tag2tagMap.containsKey(tag)) return tag2tagMap.get(tag);
+  	return tag;
+  }
+
+  private void setEngine (int index, MweEngineCursor engine, MweSpanHandler handler) {
+  	if (index < engines.size()) {
+  		engines.set(index, engine);
+  		handlers.set(index, handler);
+  	} else {
+  		registerEngine(engine, handler);
+  	}
+  }
+
+  private class NounPhraseHandler implements MweSpanHandler {
+  	public void handleSpans (LinkedList<MweSpan> spans, String[] tagArray, String[] tokenArray) {
+  		Iterator<MweSpan> it = spans.iterator();
+  		while (it.hasNext()) {
+  			MweSpan span = it.next();
+      	addNPC(span, span.startOffset, tagArray, tokenArray);
+      	if (span.embed) {
+      		MweSpan embeddedNPC = span.subSpan(span.embedTokenOffset, span.tokenCount - span.embedTokenOffset);
+      		addNPC(embeddedNPC, span.startOffset + span.charOffset(tokenArray, span.embedTokenOffset), tagArray, tokenArray);
+      	}
+  		}
+  	}
+  }
+
+  private class VerbPhraseHandler implements MweSpanHandler {
+  	public void handleSpans (LinkedList<MweSpan> spans, String[] tagArray, String[] tokenArray) {
+  		Iterator<MweSpan> it = spans.iterator();
+  		while (it.hasNext()) {
+  			MweSpan span = it.next();
+  			if (span.tokenCount==0) continue;
+      	if (span.typed) {
+          if (!defeatLVC(span, tokenArray)) {
+	          addLVC(span, tagArray, tokenArray);
+          }
+      	}
+      	else if (!defeatVPC(span, tokenArray)) {
+      	  addVPC(span, tagArray, tokenArray);
+      	}
+  		}
+  	}
+  }
+
+  /*
+   * setEngines replaces the noun and verb phrase engines, e.g. with domain specific engines from 
+   * MweEngineLoader. A null automaton leaves that engine unchanged
+   */
+  public void setEngines (MweAutomaton nominal, MweAutomaton verbal) {
+  	if (nominal != null) {
+  		nominalEngine = nominal;
+  		nominalDefinition = null;
+  	}
+  	if (verbal != null) {
+  		verbalEngine = verbal;
+  		verbalDefinition = null;
+  	}
+  	initEngines();
+  }
+
+  /*
+   * loadEngines reads the noun and verb phrase engines from definition files (either may be null to keep the
+   * current engine). Returns false, leaving the engines unchanged, if a definition could not be loaded
+   */
+  public boolean loadEngines (String nominalFilename, String verbalFilename) {
+  	MweAutomaton nominal = null;
+  	MweAutomaton verbal = null;
+  	if (nominalFilename != null && (nominal = MweEngineLoader.load(nominalFilename)) == null) return false;
+  	if (verbalFilename != null && (verbal = MweEngineLoader.load(verbalFilename)) == null) return false;
+  	String[] nominalRows = nominalFilename != null ? MweEngineLoader.readDefinition(nominalFilename) : nominalDefinition;
+  	String[] verbalRows = verbalFilename != null ? MweEngineLoader.readDefinition(verbalFilename) : verbalDefinition;
+  	setEngines(nominal, verbal);
+  	nominalDefinition = nominalRows;
+  	verbalDefinition = verbalRows;
+  	if (profiling) initEngines();
+  	return true;
+  }
+
+  public void setInterpretedEngines (boolean interpreted) {
+  	interpretedEngines = interpreted;
+  	initEngines();
+  }
+
+  /*
+   * setProfiling swaps the noun and verb phrase engines for instrumented ones (or back). The profiles count
+   * every document chunked until profiling is switched off, and are null when it is off. They run the
+   * unminimised definition (see MweAutomaton.expand), so counts refer to the definition's states and tags
+   */
+  public void setProfiling (boolean on) {
+  	profiling = on;
+  	initEngines();
+  }
+
+  public MweProfilingCursor getNounPhraseProfile () {
+  	if (!profiling) return null;
+  	return (MweProfilingCursor) nounPhraseEngine;
+  }
+
+  public MweProfilingCursor getVerbPhraseProfile () {
+  	if (!profiling) return null;
+  	return (MweProfilingCursor) verbPhraseEngine;
   }
   
   /*
@@ -129,6 +308,35 @@ public class MweChunker {
 		allLVCmode = filterLVCpatterns;
 	}
 
+	/*
+	 * getActiveLearner gives access to the classifier, e.g. to size its score cache or read the cache counters
+	 */
+	public MweActiveLearner getActiveLearner () {
+		return activeLearner;
+	}
+
+	/*
+	 * setRuleOnlyMode extracts MWEs with the engines and defeat filters alone: no feature vectors are built, no
+	 * tokens are stemmed or indexed, nothing is classified and no vectors are kept, so memory use does not grow
+	 * with the stream. Vector getters return "none" for each MWE of the current document. Turning it on drops
+	 * the vectors kept so far
+	 */
+	public void setRuleOnlyMode (boolean ruleOnlyOn) {
+		ruleOnly = ruleOnlyOn;
+		if (ruleOnly) {
+			npFeatures = new LinkedList<MweFeatureVector>();
+			lvcFeatures = new LinkedList<MweFeatureVector>();
+			vpcFeatures = new LinkedList<MweFeatureVector>();
+			npVectors = new LinkedList<String>();
+			lvcVectors = new LinkedList<String>();
+			vpcVectors = new LinkedList<String>();
+		}
+	}
+
+	public boolean inRuleOnlyMode () {
+		return ruleOnly;
+	}
+
 	public void setLearningMode (boolean learningOn, int updateRate) {
 		learning = learningOn;
 		if (activeLearner==null) activeLearner = new MweActiveLearner (); // need to set parameters
@@ -144,9 +352,9 @@ public class MweChunker {
   * the POS pattern suggests an LVC it is not. 
   */
 	private String[] defeats = {"is", "was", "are", "were", "be", "been", "become", "became", "becomes", "becoming", "being"};
-  private boolean defeatLVC(String phrase) {
-  	if (phrase.contains(" ")) {
-  		String opening = phrase.substring(0,phrase.indexOf(' ')).toLowerCase();
+  private boolean defeatLVC(MweSpan span, String[] tokens) {
+  	if (span.tokenCount > 1) {
+  		String opening = tokens[span.tokenIndex(0)].toLowerCase();
   	  for (int i=0;i<defeats.length;++i) {
   		  if (opening.equals(defeats[i])) return true;
   	  }
@@ -158,12 +366,9 @@ public class MweChunker {
    * POS tagging generally distinguishes tense of verb but not any deeper linguistic role. 
    */
  	private String[] vpcDefeats = {"that", "this"};
-  private boolean defeatVPC(String vpcPhrase) {
-  	int ep = vpcPhrase.length();
-  	if (vpcPhrase.endsWith(" ")) while (ep >0 && vpcPhrase.charAt(ep-1)==' ') ep--;
-  	String phrase = vpcPhrase.substring(0,ep).toLowerCase();
-  	if (phrase.contains(" ")) {
-   	  String lastWord = phrase.substring(phrase.lastIndexOf(' ')+1);
+  private boolean defeatVPC(MweSpan span, String[] tokens) {
+  	if (span.tokenCount > 1) {
+   	  String lastWord = tokens[span.tokenIndex(span.tokenCount-1)].toLowerCase();
    	  for (int i=0;i<vpcDefeats.length;++i) {
    		  if (lastWord.equals(vpcDefeats[i])) {
    		  	return true;
@@ -174,12 +379,12 @@ public class MweChunker {
    }
 
   private void filterVPCs () {
-  	Iterator<String> vpcIt = vpcChunks.iterator();
+  	Iterator<MweSpan> vpcIt = vpcSpans.iterator();
   	int lcount = 0;
     LinkedList<Integer> rems = new LinkedList<Integer>();
   	while (vpcIt.hasNext()) {
-  		String vpc = vpcIt.next();
-  		if (defeatVPC(vpc)||defeatLVC(vpc)) {
+  		MweSpan vpc = vpcIt.next();
+  		if (defeatVPC(vpc, chunkTokens)||defeatLVC(vpc, chunkTokens)) {
   			rems.add(lcount);
   		}
   		else lcount++;
@@ -187,20 +392,21 @@ public class MweChunker {
   	Iterator<Integer> rIt = rems.iterator();
   	while (rIt.hasNext()) {
   		lcount = rIt.next();
-			vpcChunks.remove(lcount);
+			vpcSpans.remove(lcount);
 			vpcPositions.remove(lcount);
   	}
   }
   
-  private void addNPC (String phrase, int offset, String[] tags, String[] tokens, int startTokNo, int mweTokens) {
+  private void addNPC (MweSpan span, int offset, String[] tags, String[] tokens) {
+  	int startTokNo = span.startIndex;
+  	int mweTokens = span.tokenCount;
+  	span.type = MweSpan.NPC;
+  	if (addRuleOnly(span, offset, tags, tokens)) return;
     // if just a single noun the don't bother to evaluate MWE
   	String[] tgs = new String[mweTokens];
   	if (mweTokens==1) {
-      npChunks.add(new String(phrase));
-    	npPositions.add(offset);
-    	npVectors.add("none");
     	tgs[0] = tags[startTokNo];
-    	npTags.add(tgs);
+    	addCandidate(span, offset, null, tgs, tokens, null, null);
     	return;
     }
   	String[] tagWindow = new String[mweTokens+4];
@@ -223,21 +429,17 @@ public class MweChunker {
   	for (int j=0;j<mweTokens;++j) {
   		tokenWindow[j] = tokens[startTokNo+j];
   	}
-  	String vector = vectorMaker.svmVector(tagWindow, tokenWindow, orthographics);
-  	double[] classProbs = {1,0};
-  	if (learning) {
-  	  classProbs = activeLearner.evaluate(vector, "npcModel");  // confidence for each class. MWE should be class 1
-  	}
-  	// Accept NPC if classes as such, i.e. class 1 prob above threshold (default 0.5)
-  	if (classProbs[0] <= thresholdNPC) return;
-    npChunks.add(new String(phrase));
-  	npPositions.add(offset);
-  	npVectors.add(vector);
+  	vectorMaker.svmVector(tagWindow, tokenWindow, orthographics, features);
   	for (int z=0;z<mweTokens;++z) tgs[z] = tags[startTokNo+z];
-  	npTags.add(tgs);
+  	addCandidate(span, offset, features.copy(), tgs, tokens, "npcModel", tagWindow);
   }
   
-  private void addLVC (String phrase, int offset, String[] tags, String[] tokens, int startTokNo, int mweTokens) {
+  private void addLVC (MweSpan span, String[] tags, String[] tokens) {
+  	int offset = span.startOffset;
+  	int startTokNo = span.startIndex;
+  	int mweTokens = span.tokenCount;
+  	span.type = MweSpan.LVC;
+  	if (addRuleOnly(span, offset, tags, tokens)) return;
   	String[] tagWindow = new String[mweTokens+4];
   	String[] tokenWindow = new String[mweTokens];
   	String[] orthographics = new String[mweTokens+4];
@@ -259,21 +461,17 @@ public class MweChunker {
   	for (int j=0;j<mweTokens;++j) {
   		if (startTokNo+j < tokens.length) tokenWindow[j] = tokens[startTokNo+j]; else tokenWindow[j] = ".";
   	}
-  	String vector = vectorMaker.svmVector(tagWindow, tokenWindow, orthographics);
-  	double[] classProbs = {1,0};
-  	if (learning) {
-  	  classProbs = activeLearner.evaluate(vector, "lvcModel");  // confidence for each class. MWE should be class 1
-  	}
-  	// Accept NPC if classes as such, i.e. class 1 prob above threshold (default 0.5)
-  	if (classProbs[0] <= thresholdLVC) return;
-    lvcChunks.add(new String(phrase));
-  	lvcPositions.add(offset);
-  	lvcVectors.add(vector);
+  	vectorMaker.svmVector(tagWindow, tokenWindow, orthographics, features);
   	for (int z=0;z<mweTokens;++z) if (z+startTokNo < tags.length) tgs[z] = tags[startTokNo+z]; else tgs[z] = ".";
-  	lvcTags.add(tgs);
+  	addCandidate(span, offset, features.copy(), tgs, tokens, "lvcModel", tagWindow);
   }
   
-  private void addVPC (String phrase, int offset, String[] tags, String[] tokens, int startTokNo, int mweTokens) {
+  private void addVPC (MweSpan span, String[] tags, String[] tokens) {
+  	int offset = span.startOffset;
+  	int startTokNo = span.startIndex;
+  	int mweTokens = span.tokenCount;
+  	span.type = MweSpan.VPC;
+  	if (addRuleOnly(span, offset, tags, tokens)) return;
   	String[] tagWindow = new String[mweTokens+4];
   	String[] tokenWindow = new String[mweTokens];
   	String[] orthographics = new String[mweTokens+4];
@@ -295,20 +493,163 @@ public class MweChunker {
   	for (int j=0;j<mweTokens;++j) {
   		tokenWindow[j] = tokens[startTokNo+j];
   	}
-  	String vector = vectorMaker.svmVector(tagWindow, tokenWindow, orthographics);
+  	vectorMaker.svmVector(tagWindow, tokenWindow, orthographics, features);
+  	for (int z=0;z<mweTokens;++z) if (z+startTokNo < tags.length) tgs[z] = tags[startTokNo+z]; else tgs[z] = ".";
+  	addCandidate(span, offset, features.copy(), tgs, tokens, "vpcModel", tagWindow);
+  }
+
+  /*
+   * In rule-only mode a candidate is accepted on the engines and defeat filters alone, with no feature vector
+   */
+  private boolean addRuleOnly (MweSpan span, int offset, String[] tags, String[] tokens) {
+  	if (!ruleOnly) return false;
+  	String[] tgs = new String[span.tokenCount];
+  	for (int z=0;z<tgs.length;++z) if (span.startIndex+z < tags.length) tgs[z] = tags[span.startIndex+z]; else tgs[z] = ".";
+  	addCandidate(span, offset, null, tgs, tokens, null, null);
+  	return true;
+  }
+
+  /*
+   * Candidate MWEs wait here, in document order, until scoreCandidates classifies them with one call per model
+   * and accepts those that pass, in order. chunk scores at the end of each document; a streaming session can 
+   * hold candidates over several documents.
+   */
+  private class Candidate {
+  	MweSpan span;
+  	int offset;
+  	MweFeatureVector features;
+  	String[] tags;
+  	String[] tokens;
+  	String modelName;     // null if the candidate is accepted without scoring
+  	String[] tagWindow;   // POS pattern for the gate
+  	MweListener listener; // the session listener when the candidate was found
   	double[] classProbs = {1,0};
+  }
+  private ArrayList<Candidate> candidates = new ArrayList<Candidate>();
+  private MwePatternGate patternGate = null;
+
+  private void addCandidate (MweSpan span, int offset, MweFeatureVector features, String[] tgs, String[] tokens, String modelName, String[] tagWindow) {
+  	Candidate candidate = new Candidate();
+  	candidate.span = span;
+  	candidate.offset = offset;
+  	candidate.features = features;
+  	candidate.tags = tgs;
+  	candidate.tokens = tokens;
+  	candidate.modelName = modelName;
+  	candidate.tagWindow = tagWindow;
+  	candidate.listener = sessionListener;
+  	candidates.add(candidate);
+  }
+
+  /*
+   * setPatternGate puts a MwePatternGate in front of the models, so candidates whose tag pattern the models have
+   * settled are accepted or rejected without scoring. null (the default) scores every candidate. Patterns are kept
+   * per model version, so a model that is swapped or retrained starts afresh and the old version's patterns age out
+   */
+  public void setPatternGate (MwePatternGate gate) {
+  	patternGate = gate;
+  }
+
+  public MwePatternGate getPatternGate () {
+  	return patternGate;
+  }
+
+  private double threshold (MweSpan span) {
+  	if (span.type == MweSpan.VPC) return thresholdVPC;
+  	if (span.type == MweSpan.LVC) return thresholdLVC;
+  	return thresholdNPC;
+  }
+
+  /*
+   * scoreCandidates classifies the queued candidates, one batch per model, then accepts those above their type's
+   * threshold in the order they were found
+   */
+  void scoreCandidates () {
   	if (learning) {
-  	  classProbs = activeLearner.evaluate(vector, "vpcModel");  // confidence for each class. MWE should be class 1
+  		HashMap<String, ArrayList<Candidate>> batches = new HashMap<String, ArrayList<Candidate>>();
+  		HashMap<String, String> gateNames = new HashMap<String, String>(); // gate statistics are per model version
+  		for (Candidate candidate : candidates) {
+  			if (candidate.modelName == null) continue;
+  			if (patternGate != null) {
+  				String gateName = gateNames.get(candidate.modelName);
+  				if (gateName == null) {
+  					gateName = activeLearner.getVersionedName(candidate.modelName);
+  					gateNames.put(candidate.modelName, gateName);
+  				}
+  				int decision = patternGate.decide(gateName, candidate.tagWindow);
+  				if (decision == MwePatternGate.ACCEPT) candidate.classProbs = new double[] {1,0};
+  				if (decision == MwePatternGate.REJECT) candidate.classProbs = new double[] {0,1};
+  				if (decision != MwePatternGate.SCORE) continue;
+  			}
+  			ArrayList<Candidate> batch = batches.get(candidate.modelName);
+  			if (batch == null) {
+  				batch = new ArrayList<Candidate>();
+  				batches.put(candidate.modelName, batch);
+  			}
+  			batch.add(candidate);
+  		}
+  		for (String modelName : batches.keySet()) {
+  			ArrayList<Candidate> batch = batches.get(modelName);
+  			MweFeatureVector[] vectors = new MweFeatureVector[batch.size()];
+  			for (int i=0;i<vectors.length;++i) vectors[i] = batch.get(i).features;
+  			double[][] classProbs = activeLearner.evaluate(vectors, vectors.length, modelName);  // confidence for each class. MWE should be class 1
+  			for (int i=0;i<vectors.length;++i) {
+  				Candidate candidate = batch.get(i);
+  				candidate.classProbs = classProbs[i];
+  				if (patternGate != null) patternGate.record(gateNames.get(modelName), candidate.tagWindow, classProbs[i][0] > threshold(candidate.span));
+  			}
+  		}
   	}
-  	// Accept NPC if classes as such, i.e. class 1 prob above threshold (default 0.5)
-  	if (classProbs[0] <= thresholdVPC) return;
-    if (phrase.endsWith(" \"")) phrase = phrase.substring(0, phrase.length()-2);
-  	vpcChunks.add(new String(phrase));
-  	vpcPositions.add(offset);
-  	vpcVectors.add(vector);
-  	for (int z=0;z<mweTokens;++z) if (z+startTokNo < tags.length) tgs[z] = tags[startTokNo+z]; else tgs[z] = ".";
-    vpcTags.add(tgs);
-  }  
+  	for (Candidate candidate : candidates) {
+  		MweSpan span = candidate.span;
+  		// Accept MWE if classed as such, i.e. class 1 prob above threshold (default 0.5)
+  		if (candidate.modelName != null && candidate.classProbs[0] <= threshold(span)) continue;
+  		// drop a trailing quote from a VPC phrase
+  		if (span.type == MweSpan.VPC && span.tokenCount > 1 && candidate.tokens[span.tokenIndex(span.tokenCount-1)].equals("\"")) {
+  			span = span.subSpan(0, span.tokenCount-1);
+  		}
+  		accept(span, candidate.offset, candidate.features, candidate.tags, candidate.tokens, candidate.listener);
+  	}
+  	candidates.clear();
+  }
+
+  /*
+   * accept stores an MWE that passed classification or, if it was found by a streaming session, hands it to the
+   * session's listener (applying the VPC filter that chunk runs at the end of the document)
+   */
+  private MweListener sessionListener = null;
+
+  void setSessionListener (MweListener listener) {
+  	sessionListener = listener;
+  }
+
+  private void accept (MweSpan span, int offset, MweFeatureVector vector, String[] tgs, String[] tokens, MweListener listener) {
+  	if (listener != null) {
+  		if (span.type == MweSpan.VPC && (defeatVPC(span, tokens)||defeatLVC(span, tokens))) return;
+  		listener.mweFound(span, span.phrase(tokens), offset, vector, tgs);
+  		return;
+  	}
+  	switch (span.type) {
+  	case (MweSpan.NPC) :
+  		npSpans.add(span);
+  		npPositions.add(offset);
+  		if (!ruleOnly) npFeatures.add(vector);
+  		npTags.add(tgs);
+  		break;
+  	case (MweSpan.LVC) :
+  		lvcSpans.add(span);
+  		lvcPositions.add(offset);
+  		if (!ruleOnly) lvcFeatures.add(vector);
+  		lvcTags.add(tgs);
+  		break;
+  	case (MweSpan.VPC) :
+  		vpcSpans.add(span);
+  		vpcPositions.add(offset);
+  		if (!ruleOnly) vpcFeatures.add(vector);
+  		vpcTags.add(tgs);
+  		break;
+  	}
+  }
   /*
 	 * Chunk takes a sequence of tags and the corresponding tokens and parses the tags. Sequences of tags that 
 	 * correspond to the bigram rules below are used to chunk the associated tokens into multi-word-expressions, and stored
@@ -319,9 +660,12 @@ public class MweChunker {
 	}
 	
 	public void chunk (String posString, String tokenString, LinkedList<Integer>posPositions) {
-		npChunks = new LinkedList<String>();
-		vpcChunks = new LinkedList<String>();
-		lvcChunks = new LinkedList<String>();
+		npSpans = new LinkedList<MweSpan>();
+		vpcSpans = new LinkedList<MweSpan>();
+		lvcSpans = new LinkedList<MweSpan>();
+		npChunks = null;
+		vpcChunks = null;
+		lvcChunks = null;
 		pronouns = new LinkedList<String>();
 		npPositions = new LinkedList<Integer>();
 		vpcPositions = new LinkedList<Integer>();
@@ -357,72 +701,252 @@ public class MweChunker {
 		if (posPositions!=null) {
 			posIt = posPositions.iterator();
 		}
-		
-    // extract noun phrase chunks
+		int[] offsets = new int[tokenTotal]; // document offset of each token
 		int offset = 0;
-		int startPos = -1;
-		int startTagNo = 0;
-		int chunkTags = 0;
-
-    for (int tokenNo=0;tokenNo<tokenTotal;++tokenNo) {
-    	String pos = tagArray[tokenNo];
-    	String word = tokenArray[tokenNo];
+		for (int tokenNo=0;tokenNo<tokenTotal;++tokenNo) {
     	if (posIt!=null) {
       	if (posIt.hasNext()) {
       		offset = posIt.next();
       	}
       }
-      nounPhraseEngine.stepEngine(pos, word, offset, tokenNo);
-      // boolean typed = nounPhraseEngine.currentMweIsTyped(); // flag for subtyping - possible future use
-      String extract = nounPhraseEngine.getExtractMWE();
-      if (extract!=null) {
-      	chunkTags = nounPhraseEngine.extractTokenCount;
-      	startTagNo = tokenNo - chunkTags;
-      	startPos = nounPhraseEngine.chunkStartPt();
-      	addNPC(extract, startPos, tagArray, tokenArray, startTagNo, chunkTags);
-      	if (nounPhraseEngine.hasEmbed()) {
-      		String embeddedNPC = extract.substring(nounPhraseEngine.embedOffset());
-      		int embedTagNo = startTagNo + nounPhraseEngine.embedTokenOffset();
-      		int embedTags = chunkTags - nounPhraseEngine.embedTokenOffset();
-      		addNPC(embeddedNPC, startPos+nounPhraseEngine.embedOffset(), tagArray, tokenArray, embedTagNo, embedTags);
-      	}
-      }
-    }
-    
-		if (posPositions!=null) {
-			posIt = posPositions.iterator();
+    	offsets[tokenNo] = offset;
 		}
-    for (int tokenNo=0;tokenNo<tokenTotal;++tokenNo) {
-    	String pos = tagArray[tokenNo];
-    	String word = tokenArray[tokenNo];
-    	if (posIt!=null) {
-      	if (posIt.hasNext()) {
-      		offset = posIt.next();
-      	}
-      }
-      verbPhraseEngine.stepEngine(pos, word, offset, tokenNo);
-      boolean typed = verbPhraseEngine.currentMweIsTyped(); // flag for subtyping - possible future use
-      String extract = verbPhraseEngine.getExtractMWE();
-      if (extract!=null && !extract.equals("")) {
-      	chunkTags = verbPhraseEngine.extractTokenCount;
-      	startTagNo = verbPhraseEngine.chunkStartIndex();
-      	startPos = verbPhraseEngine.chunkStartPt();
-      	if (typed) {
-          if (!defeatLVC(extract)) {
-	          addLVC(extract, startPos, tagArray, tokenArray, startTagNo, chunkTags);
-          }
-      	}
-      	else if (!defeatVPC(extract)) {
-      	  addVPC(extract, startPos, tagArray, tokenArray, startTagNo, chunkTags);
-      	}
-      }
-      if (pos.equals("PRP")) pronouns.add(new String(word));
+		
+    // step every registered engine over each token in a single pass, collecting its extractions
+    chunkTokens = tokenArray;
+    int engineCount = engines.size();
+    MweEngineCursor[] cursors = engines.toArray(new MweEngineCursor[engineCount]);
+    ArrayList<LinkedList<MweSpan>> spans;
+    segmentReruns = 0;
+    if (parallelPool != null && !profiling && tokenTotal >= 2 * PARALLEL_SEGMENT) {
+    	spans = chunkSegments(cursors, tagArray, tokenArray, offsets);
+    } else {
+    	spans = new ArrayList<LinkedList<MweSpan>>(engineCount);
+    	for (int e=0;e<engineCount;++e) spans.add(new LinkedList<MweSpan>());
+    	stepEngines(cursors, 0, tokenTotal, tagArray, tokenArray, offsets, spans, pronouns);
+    }
+
+    // hand each engine's extractions over in registration order, then score the candidates they found
+    for (int e=0;e<engineCount;++e) {
+    	handlers.get(e).handleSpans(spans.get(e), tagArray, tokenArray);
     }
+    scoreCandidates();
 
     filterVPCs();
 	}
 
+	/*
+	 * stepEngines steps the cursors over tokens from (inclusive) to to (exclusive), adding their extractions to
+	 * spans and the PRP tokens to prps. Either list may be null for a run whose results are not wanted
+	 */
+	private void stepEngines (MweEngineCursor[] cursors, int from, int to, String[] tagArray, String[] tokenArray, int[] offsets,
+			ArrayList<LinkedList<MweSpan>> spans, LinkedList<String> prps) {
+		for (int tokenNo=from;tokenNo<to;++tokenNo) {
+			String pos = tagArray[tokenNo];
+			String word = tokenArray[tokenNo];
+			for (int e=0;e<cursors.length;++e) {
+				cursors[e].stepEngine(pos, word, offsets[tokenNo], tokenNo);
+				MweSpan span = cursors[e].takeSpan(tokenNo);
+				if (span!=null && spans!=null) spans.get(e).add(span);
+			}
+			if (prps!=null && pos.equals("PRP")) prps.add(new String(word));
+		}
+	}
+
+	/*
+	 * Parallel chunking. A large document is cut into segments, preferably just after a "." tag, and the segments
+	 * are stepped on a ForkJoinPool. The first segment continues with the chunker's own cursors; each later segment
+	 * gets fresh cursors that are first run over the PARALLEL_WARMUP tokens before it, which almost always brings
+	 * them into the state the sequential run would be in. The segments are then stitched in document order: where
+	 * an engine's warmed up state differs from where the previous segment actually finished, that engine's 
+	 * segment is stepped again from the true state, so the result is always that of the sequential pass.
+	 * Extractions are classified sequentially afterwards, as the feature vectors depend on document order.
+	 */
+	private static final int PARALLEL_SEGMENT = 16384; // minimum segment length in tokens
+	private static final int PARALLEL_WARMUP = 256;    // tokens stepped before a segment to find its start state
+	private ForkJoinPool parallelPool = null;
+	private int segmentReruns = 0;
+
+	/*
+	 * setParallelChunking chunks documents of more than 2 * PARALLEL_SEGMENT tokens in segments on the common
+	 * ForkJoinPool (or sequentially if off)
+	 */
+	public void setParallelChunking (boolean on) {
+		if (on) parallelPool = ForkJoinPool.commonPool(); else parallelPool = null;
+	}
+
+	public void setParallelChunking (ForkJoinPool pool) {
+		parallelPool = pool;
+	}
+
+	/*
+	 * getSegmentReruns is the number of engine segments of the last document that had to be stepped again
+	 * because the warmed up start state was wrong
+	 */
+	public int getSegmentReruns () {
+		return segmentReruns;
+	}
+
+	private class ChunkSegment {
+		int from;
+		int to;
+		MweEngineCursor[] cursors;
+		MweEngineCursor[] startStates; // cursor states after the warm up, null for the first segment
+		ArrayList<LinkedList<MweSpan>> spans = new ArrayList<LinkedList<MweSpan>>();
+		LinkedList<String> prps = new LinkedList<String>();
+
+		void run (String[] tagArray, String[] tokenArray, int[] offsets, int warmFrom) {
+			if (startStates != null) {
+				stepEngines(cursors, warmFrom, from, tagArray, tokenArray, offsets, null, null);
+				for (int e=0;e<cursors.length;++e) {
+					startStates[e] = new MweEngineCursor(cursors[e].getAutomaton());
+					startStates[e].copyRunState(cursors[e]);
+				}
+			}
+			stepEngines(cursors, from, to, tagArray, tokenArray, offsets, spans, prps);
+		}
+	}
+
+	private class SegmentTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private ChunkSegment[] segments;
+		private int first;
+		private int last;
+		private String[] tagArray;
+		private String[] tokenArray;
+		private int[] offsets;
+
+		SegmentTask (ChunkSegment[] segments, int first, int last, String[] tagArray, String[] tokenArray, int[] offsets) {
+			this.segments = segments;
+			this.first = first;
+			this.last = last;
+			this.tagArray = tagArray;
+			this.tokenArray = tokenArray;
+			this.offsets = offsets;
+		}
+
+		protected void compute () {
+			if (last - first == 1) {
+				int warmFrom = segments[first].from;
+				if (first > 0) warmFrom = Math.max(segments[first-1].from, segments[first].from - PARALLEL_WARMUP);
+				segments[first].run(tagArray, tokenArray, offsets, warmFrom);
+				return;
+			}
+			int mid = (first + last) / 2;
+			invokeAll(new SegmentTask(segments, first, mid, tagArray, tokenArray, offsets), 
+					new SegmentTask(segments, mid, last, tagArray, tokenArray, offsets));
+		}
+	}
+
+	private ArrayList<LinkedList<MweSpan>> chunkSegments (MweEngineCursor[] cursors, String[] tagArray, String[] tokenArray, int[] offsets) {
+		int tokenTotal = tagArray.length;
+		int engineCount = cursors.length;
+
+		// segment starts, each just after a sentence end if there is one soon after the target length
+		int length = Math.max(PARALLEL_SEGMENT, tokenTotal / (parallelPool.getParallelism() * 4));
+		ArrayList<Integer> starts = new ArrayList<Integer>();
+		starts.add(0);
+		int next = length;
+		while (next + PARALLEL_SEGMENT / 2 < tokenTotal) {
+			int start = next;
+			for (int k=next;k<next+PARALLEL_WARMUP && k<tokenTotal-1;++k) {
+				if (tagArray[k].equals(".")) {
+					start = k + 1;
+					break;
+				}
+			}
+			starts.add(start);
+			next = start + length;
+		}
+
+		ChunkSegment[] segments = new ChunkSegment[starts.size()];
+		for (int i=0;i<segments.length;++i) {
+			ChunkSegment segment = new ChunkSegment();
+			segment.from = starts.get(i);
+			segment.to = tokenTotal;
+			if (i+1 < segments.length) segment.to = starts.get(i+1);
+			if (i==0) {
+				segment.cursors = cursors;
+			} else {
+				segment.cursors = new MweEngineCursor[engineCount];
+				for (int e=0;e<engineCount;++e) segment.cursors[e] = cursors[e].newCursor();
+				segment.startStates = new MweEngineCursor[engineCount];
+			}
+			for (int e=0;e<engineCount;++e) segment.spans.add(new LinkedList<MweSpan>());
+			segments[i] = segment;
+		}
+		parallelPool.invoke(new SegmentTask(segments, 0, segments.length, tagArray, tokenArray, offsets));
+
+		// stitch the segments together in document order
+		ArrayList<LinkedList<MweSpan>> spans = new ArrayList<LinkedList<MweSpan>>(engineCount);
+		for (int e=0;e<engineCount;++e) {
+			LinkedList<MweSpan> engineSpans = new LinkedList<MweSpan>();
+			MweEngineCursor running = cursors[e];
+			engineSpans.addAll(segments[0].spans.get(e));
+			for (int i=1;i<segments.length;++i) {
+				if (running.sameRunState(segments[i].startStates[e])) {
+					engineSpans.addAll(segments[i].spans.get(e));
+					running = segments[i].cursors[e];
+				} else {
+					ArrayList<LinkedList<MweSpan>> rerun = new ArrayList<LinkedList<MweSpan>>();
+					rerun.add(engineSpans);
+					stepEngines(new MweEngineCursor[] {running}, segments[i].from, segments[i].to, tagArray, tokenArray, offsets, rerun, null);
+					segmentReruns++;
+				}
+			}
+			if (running != cursors[e]) cursors[e].copyRunState(running); // carry on into the next document as the sequential pass would
+			spans.add(engineSpans);
+		}
+		for (int i=0;i<segments.length;++i) pronouns.addAll(segments[i].prps);
+		return spans;
+	}
+
+	/*
+	 * Spans of the accepted MWEs over the tokens of the last chunked document. Callers that only need 
+	 * offsets and token counts can use these and never build the phrase strings
+	 */
+	public LinkedList<MweSpan> getNounSpans () {
+		return npSpans;
+	}
+
+	public LinkedList<MweSpan> getVPCSpans () {
+		return vpcSpans;
+	}
+
+	public LinkedList<MweSpan> getLVCSpans () {
+		return lvcSpans;
+	}
+
+	public String getPhrase (MweSpan span) {
+		return span.phrase(chunkTokens);
+	}
+
+	// adds the strings of features not yet in vectors (both lists run on across documents)
+	private void vectors (LinkedList<MweFeatureVector> featureList, LinkedList<String> vectors) {
+		Iterator<MweFeatureVector> it = featureList.listIterator(vectors.size());
+		while (it.hasNext()) {
+			MweFeatureVector vector = it.next();
+			if (vector == null) vectors.add("none"); else vectors.add(vector.toString());
+		}
+	}
+
+	// in rule-only mode there is no vector for an MWE of the current document
+	private LinkedList<String> noVectors (int count) {
+		LinkedList<String> vectors = new LinkedList<String>();
+		for (int i=0;i<count;++i) vectors.add("none");
+		return vectors;
+	}
+
+	private LinkedList<String> phrases (LinkedList<MweSpan> spans) {
+		LinkedList<String> chunks = new LinkedList<String>();
+		Iterator<MweSpan> it = spans.iterator();
+		while (it.hasNext()) chunks.add(it.next().phrase(chunkTokens));
+		return chunks;
+	}
+
 	public LinkedList<String> getNounChunks () {
+		if (npChunks==null) npChunks = phrases(npSpans);
 		return npChunks;
 	}
 	
@@ -436,7 +960,7 @@ public class MweChunker {
 	
 	public LinkedList<String> getNounMWEs () {
 		LinkedList<String> mwes = new LinkedList<String>();
-	  Iterator<String> it = npChunks.iterator();
+	  Iterator<String> it = getNounChunks().iterator();
     while (it.hasNext()) {
 		  String np = (String) it.next();
 	    if (np.contains(" ")) mwes.add(np);
@@ -447,7 +971,7 @@ public class MweChunker {
 	public LinkedList<Integer> getNounMWEstarts () {
 		LinkedList<Integer> mwes = new LinkedList<Integer>();
 	  Iterator<Integer> pit = npPositions.iterator();
-	  Iterator<String> it = npChunks.iterator();
+	  Iterator<String> it = getNounChunks().iterator();
     while (it.hasNext()) {
 		  String np = (String) it.next();
 		  int position = pit.next();
@@ -459,7 +983,7 @@ public class MweChunker {
 	public LinkedList<String[]> getNounMWEtags () {
 		LinkedList<String[]> mwes = new LinkedList<String[]>();
 	  Iterator<String[]> tit = npTags.iterator();
-	  Iterator<String> it = npChunks.iterator();
+	  Iterator<String> it = getNounChunks().iterator();
     while (it.hasNext()) {
 		  String np = (String) it.next();
 		  String[] vec = tit.next();
@@ -470,8 +994,10 @@ public class MweChunker {
 	
 	public LinkedList<String> getNounMWEvectors () {
 		LinkedList<String> mwes = new LinkedList<String>();
+		if (ruleOnly) return noVectors(getNounMWEs().size());
+		vectors(npFeatures, npVectors);
 	  Iterator<String> vit = npVectors.iterator();
-	  Iterator<String> it = npChunks.iterator();
+	  Iterator<String> it = getNounChunks().iterator();
     while (it.hasNext()) {
 		  String np = (String) it.next();
 		  String vec = vit.next();
@@ -482,7 +1008,7 @@ public class MweChunker {
 	
 	public LinkedList<String> getVerbMWEs () {
 		LinkedList<String> mwes = new LinkedList<String>();
-	  Iterator<String> it = vpcChunks.iterator();
+	  Iterator<String> it = getVPCChunks().iterator();
     while (it.hasNext()) {
 		  String vpc = (String) it.next();
 	    if (vpc.contains(" ")) mwes.add(vpc);
@@ -492,7 +1018,7 @@ public class MweChunker {
 	
 	public LinkedList<String> getPhraseMWEs () {
 		LinkedList<String> mwes = new LinkedList<String>();
-	  Iterator<String> it = lvcChunks.iterator();
+	  Iterator<String> it = getLVCChunks().iterator();
     while (it.hasNext()) {
 		  String vpc = (String) it.next();
 	    if (vpc.contains(" ")) mwes.add(vpc);
@@ -501,10 +1027,13 @@ public class MweChunker {
 	}
 	
 	public LinkedList<String> getVPCVectors () {
+		if (ruleOnly) return noVectors(vpcSpans.size());
+		vectors(vpcFeatures, vpcVectors);
 		return vpcVectors;
 	}
 	
 	public LinkedList<String> getVPCChunks () {
+		if (vpcChunks==null) vpcChunks = phrases(vpcSpans);
 		return vpcChunks;
 	}
 	
@@ -521,10 +1050,13 @@ public class MweChunker {
 	}
 	
 	public LinkedList<String> getLVCVectors () {
+		if (ruleOnly) return noVectors(lvcSpans.size());
+		vectors(lvcFeatures, lvcVectors);
 		return lvcVectors;
 	}
 	
 	public LinkedList<String> getLVCChunks () {
+		if (lvcChunks==null) lvcChunks = phrases(lvcSpans);
 		return lvcChunks;
 	}
 	
@@ -545,7 +1077,7 @@ public class MweChunker {
 	}
 	
   public String toString() {
-	  Iterator<String> it = npChunks.iterator();
+	  Iterator<String> it = getNounChunks().iterator();
 	  StringBuffer sb = new StringBuffer();
 	  sb.append("{");
     while (it.hasNext()) {
@@ -554,14 +1086,14 @@ public class MweChunker {
       }
     sb.append("}");
     
-	  it = vpcChunks.iterator();
+	  it = getVPCChunks().iterator();
 	  sb.append(",{");
     while (it.hasNext()) {
   	  sb.append(it.next()+",");
       }
     sb.append("}");
 
-	  it = lvcChunks.iterator();
+	  it = getLVCChunks().iterator();
 	  sb.append(",{");
     while (it.hasNext()) {
   	  sb.append(it.next()+",");
@@ -0,0 +1,213 @@
+package mesme;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.StringTokenizer;
+
+/*
+ * MweChunkerSession chunks a document that arrives in fragments, e.g. a tweet stream or a long transcript.
+ * Tag/token batches are stepped through the engines as they arrive, so an open chunk, the prior tag and any
+ * embed point carry over from one batch to the next. An extraction is classified and reported once the two
+ * tokens of context that follow it (and one more) have arrived, or at endDocument, which also adds the " ." terminator that
+ * MweChunker.chunk appends to a whole document.
+ * Only the tokens still needed (open chunks, unreported extractions and their context) are kept, so memory is 
+ * bounded by the longest open chunk rather than by the document. Pronouns are not collected.
+ * Complete extractions are classified as each batch is reported, or, with setScoringBatch, held and classified
+ * together every few documents (one classifier call per model), still reaching the listener in order.
+ * Open a session with MweChunker.openSession.
+ */
+public class MweChunkerSession {
+	private static final int CONTEXT = 2; // tokens of context either side of an MWE used for its feature vector
+
+	private MweChunker chunker;
+	private MweEngineCursor[] cursors;
+	private MweSpanHandler[] handlers;
+	private MweListener listener;
+	private ArrayList<LinkedList<MweSpan>> pending = new ArrayList<LinkedList<MweSpan>>();
+
+	// tokens held from the stream, tags[0] being token number bufferStart of the document
+	private String[] tags = new String[64];
+	private String[] tokens = new String[64];
+	private int bufferStart = 0;
+	private int bufferCount = 0;
+	private int tokenNo = 0; // tokens stepped so far in the session
+	private int documentStart = 0; // token number of the first token of the current document
+	private int offset = 0;  // document offset of the last token
+	private int scoringBatch = 0; // documents per classification batch, 0 to classify at each report
+	private int documentsHeld = 0;
+
+	MweChunkerSession (MweChunker chunker, MweEngineCursor[] cursors, MweSpanHandler[] handlers, MweListener listener) {
+		this.chunker = chunker;
+		this.cursors = cursors;
+		this.handlers = handlers;
+		this.listener = listener;
+		for (int e=0;e<cursors.length;++e) pending.add(new LinkedList<MweSpan>());
+	}
+
+	public void addTokens (String posString, String tokenString) {
+		addTokens (posString, tokenString, null);
+	}
+
+	/*
+	 * addTokens steps the engines over the next batch of tags and tokens, with their document offsets if known,
+	 * and reports every MWE that is complete
+	 */
+	public void addTokens (String posString, String tokenString, LinkedList<Integer> posPositions) {
+		StringTokenizer tagList = new StringTokenizer(posString, " \n");
+		StringTokenizer tokenList = new StringTokenizer(tokenString, " \n");
+		Iterator<Integer> posIt = null;
+		if (posPositions!=null) posIt = posPositions.iterator();
+		while (tokenList.hasMoreTokens()) {
+			if (posIt!=null && posIt.hasNext()) offset = posIt.next();
+			step(chunker.mapTag(tagList.nextToken()), tokenList.nextToken());
+		}
+		report(false);
+		trim();
+	}
+
+	/*
+	 * endDocument terminates the document, reports the MWEs still pending and readies the session for the next document
+	 */
+	public void endDocument () {
+		step(".", ".");
+		report(true);
+		// the engines run on from the terminator into the next document, as they do between chunk calls, so tokens
+		// keep their session numbers and only the numbering reported to the listener restarts
+		documentStart = tokenNo;
+		offset = 0;
+		if (scoringBatch > 0 && ++documentsHeld >= scoringBatch) flush();
+	}
+
+	/*
+	 * setScoringBatch holds extractions unclassified until the given number of documents have ended, so they are
+	 * classified in larger batches. 0 (the default) classifies them as they are reported
+	 */
+	public void setScoringBatch (int documents) {
+		scoringBatch = Math.max(0, documents);
+		if (scoringBatch == 0) flush();
+	}
+
+	/*
+	 * flush classifies the extractions held for the scoring batch and reports those accepted
+	 */
+	public void flush () {
+		chunker.scoreCandidates();
+		documentsHeld = 0;
+	}
+
+	/*
+	 * getBufferedTokens is the number of tokens currently held by the session
+	 */
+	public int getBufferedTokens () {
+		return bufferCount;
+	}
+
+	private void step (String pos, String word) {
+		if (bufferCount == tags.length) {
+			String[] t = new String[bufferCount * 2];
+			String[] w = new String[bufferCount * 2];
+			System.arraycopy(tags, 0, t, 0, bufferCount);
+			System.arraycopy(tokens, 0, w, 0, bufferCount);
+			tags = t;
+			tokens = w;
+		}
+		tags[bufferCount] = pos;
+		tokens[bufferCount] = word;
+		bufferCount++;
+		for (int e=0;e<cursors.length;++e) {
+			cursors[e].stepEngine(pos, word, offset, tokenNo);
+			MweSpan span = cursors[e].takeSpan(tokenNo);
+			if (span!=null) pending.get(e).add(span);
+		}
+		tokenNo++;
+	}
+
+	private static int lastIndex (MweSpan span) {
+		if (span.tokenCount == 0) return span.startIndex - 1;
+		return span.tokenIndex(span.tokenCount - 1);
+	}
+
+	/*
+	 * report hands each engine's pending extractions, in order, to its handler once their following context has
+	 * arrived (or all of them at the end of the document). Each is passed over a window of the stream holding the
+	 * extraction and its context, and ends with the last token of the document or a boundary token, as in chunk
+	 */
+	private void report (boolean atEnd) {
+		try {
+			for (int e=0;e<cursors.length;++e) {
+				LinkedList<MweSpan> spans = pending.get(e);
+				while (!spans.isEmpty()) {
+					MweSpan span = spans.getFirst();
+					int last = lastIndex(span);
+					if (!atEnd && last + CONTEXT + 1 >= tokenNo) break; // context and boundary token not all here yet
+					spans.removeFirst();
+					int windowStart = Math.max(bufferStart, span.startIndex - CONTEXT);
+					if (span.startIndex >= documentStart) windowStart = Math.max(windowStart, documentStart); // no context from the last document
+					int windowEnd = Math.max(windowStart, Math.min(last + CONTEXT + 1, tokenNo - 1)); // boundary (or final) token
+					int length = windowEnd - windowStart + 1;
+					String[] windowTags = new String[length];
+					String[] windowTokens = new String[length];
+					System.arraycopy(tags, windowStart - bufferStart, windowTags, 0, length);
+					System.arraycopy(tokens, windowStart - bufferStart, windowTokens, 0, length);
+					shift(span, -windowStart);
+					LinkedList<MweSpan> one = new LinkedList<MweSpan>();
+					one.add(span);
+					chunker.setSessionListener(new ReportListener(windowStart, documentStart));
+					handlers[e].handleSpans(one, windowTags, windowTokens);
+				}
+			}
+		} finally {
+			chunker.setSessionListener(null);
+		}
+		if (scoringBatch == 0) chunker.scoreCandidates();
+	}
+
+	private static void shift (MweSpan span, int by) {
+		span.startIndex += by;
+		if (span.tokenIndices != null) {
+			for (int i=0;i<span.tokenIndices.length;++i) span.tokenIndices[i] += by;
+		}
+	}
+
+	/*
+	 * The chunker reports accepted MWEs against the window; the listener sees them against the document
+	 */
+	private class ReportListener implements MweListener {
+		private int windowStart;
+		private int documentStart;
+
+		ReportListener (int windowStart, int documentStart) {
+			this.windowStart = windowStart;
+			this.documentStart = documentStart;
+		}
+
+		public void mweFound (MweSpan span, String phrase, int offset, MweFeatureVector features, String[] tags) {
+			shift(span, windowStart - documentStart);
+			span.tokenNo -= documentStart;
+			listener.mweFound(span, phrase, offset, features, tags);
+		}
+	}
+
+	/*
+	 * trim drops the tokens before the earliest one still needed as part of, or context for, an open chunk,
+	 * a pending extraction or the next token
+	 */
+	private void trim () {
+		int keep = tokenNo - CONTEXT;
+		for (int e=0;e<cursors.length;++e) {
+			if (cursors[e].chunkTokenCount > 0) keep = Math.min(keep, cursors[e].chunkStartIndex() - CONTEXT);
+			for (MweSpan span : pending.get(e)) keep = Math.min(keep, span.startIndex - CONTEXT);
+		}
+		int drop = keep - bufferStart;
+		if (drop <= 0) return;
+		System.arraycopy(tags, drop, tags, 0, bufferCount - drop);
+		System.arraycopy(tokens, drop, tokens, 0, bufferCount - drop);
+		for (int i=bufferCount-drop;i<bufferCount;++i) {
+			tags[i] = null;
+			tokens[i] = null;
+		}
+		bufferCount -= drop;
+		bufferStart = keep;
+	}
+}
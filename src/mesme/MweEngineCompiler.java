@@ -0,0 +1,264 @@
+package mesme;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/*
+ * MweEngineCompiler turns a STATE, TAG, ACTION, NEXT-STATE engine definition into a minimised MweAutomaton.
+ * Action names are resolved to codes once per row from a fixed table, states that can not be reached from the
+ * start state are dropped, equivalent states are merged, and tags that every state treats alike share one column
+ * (tags that behave exactly like "**" are dropped from the dictionary altogether). getReport describes the result.
+ */
+public class MweEngineCompiler {
+	// changed whenever compiled tables for the same definition could differ, so cached tables are rebuilt
+	public static final int VERSION = 1;
+
+	private static final HashMap<String, Integer> actionCodes = new HashMap<String, Integer>();
+	private static final HashMap<Integer, String> actionNames = new HashMap<Integer, String>();
+	static {
+		String[] names = {"ADD_TOKEN", "CLEAR_CHUNK", "CLEAR_ADD", "SET_MWE", "SET_MWE_CLEAR", "SET_MWE_ADD", "SET_MWE_ADDEMBED",
+				"SET_MWE_SUBTYPE", "SET_MWE_SUBTYPE_CLEAR", "ADD_SET_MWE", "ADD_SET_MWE_CLEAR", "ADD_SET_MWE_SUBTYPE",
+				"ADD_SET_MWE_SUBTYPE_CLEAR", "ADD_SET_MWE_SUBTYPE_CLEAR_ADD", "CONTINUE", "SUBSTATE", "SKIP"};
+		int[] codes = {MweStateEngine.ADD_TOKEN, MweStateEngine.CLEAR_CHUNK, MweStateEngine.CLEAR_ADD, MweStateEngine.SET_MWE,
+				MweStateEngine.SET_MWE_CLEAR, MweStateEngine.SET_MWE_ADD, MweStateEngine.SET_MWE_ADDEMBED, MweStateEngine.SET_MWE_SUBTYPE,
+				MweStateEngine.SET_MWE_SUBTYPE_CLEAR, MweStateEngine.ADD_SET_MWE, MweStateEngine.ADD_SET_MWE_CLEAR,
+				MweStateEngine.ADD_SET_MWE_SUBTYPE, MweStateEngine.ADD_SET_MWE_SUBTYPE_CLEAR, MweStateEngine.ADD_SET_MWE_SUBTYPE_CLEAR_ADD,
+				MweStateEngine.CONTINUE, MweStateEngine.SUBSTATE, MweStateEngine.SKIP};
+		for (int i=0;i<names.length;++i) {
+			actionCodes.put(names[i], codes[i]);
+			actionNames.put(codes[i], names[i]);
+		}
+	}
+
+	/*
+	 * getActionCode returns the code for a named action, or -1 (treated as do nothing) if the name is not known
+	 */
+	public static int getActionCode (String actionName) {
+		Integer code = actionCodes.get(actionName);
+		if (code == null) {
+			System.err.println("Could not find valid action code for "+actionName);
+			return -1;
+		}
+		return code;
+	}
+
+	public static String getActionName (int actionCode) {
+		if (actionCode == 0) return "NONE";
+		String name = actionNames.get(actionCode);
+		if (name == null) return "UNKNOWN";
+		return name;
+	}
+
+	private String[] states;
+	private String[] tags;
+	private int[] codes;
+	private String[] next;
+	private StringBuffer report = new StringBuffer();
+
+	/*
+	 * stateSpec should be a table of strings, each row comprising STATE, TAG, ACTION, NEXT-STATE
+	 */
+	public MweEngineCompiler (String[] stateSpec) {
+		int rows = stateSpec.length / 4;
+		states = new String[rows];
+		tags = new String[rows];
+		codes = new int[rows];
+		next = new String[rows];
+		for (int i=0;i<rows;++i) {
+			states[i] = stateSpec[i*4];
+			tags[i] = stateSpec[i*4+1];
+			codes[i] = getActionCode(stateSpec[i*4+2]);
+			next[i] = stateSpec[i*4+3];
+		}
+	}
+
+	public MweEngineCompiler (String[] stateNames, String[] tagNames, int[] actionCodes, String[] nextStateNames) {
+		states = stateNames;
+		tags = tagNames;
+		codes = actionCodes;
+		next = nextStateNames;
+	}
+
+	public String getReport () {
+		return report.toString();
+	}
+
+	/*
+	 * expand builds the automaton without minimising it: unreachable states are kept and no states or tags are
+	 * merged, so its states and tag columns are the definition's own
+	 */
+	public MweAutomaton expand () {
+		return new MweAutomaton(states, tags, codes, next);
+	}
+
+	public MweAutomaton compile () {
+		MweAutomaton full = new MweAutomaton(states, tags, codes, next);
+		int stateCount = full.getStateCount();
+		int tagCount = full.getTagCount();
+		report.setLength(0);
+
+		// dead state elimination: keep only states reachable from the start state
+		boolean[] live = new boolean[stateCount];
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		live[full.getStartState()] = true;
+		queue.add(full.getStartState());
+		while (!queue.isEmpty()) {
+			int s = queue.removeFirst();
+			for (int t=0;t<tagCount;++t) {
+				int n = full.nextState(s, t);
+				if (!live[n]) {
+					live[n] = true;
+					queue.add(n);
+				}
+			}
+		}
+
+		// state minimisation by partition refinement. Blocks start from identical action rows, which also keeps
+		// SUBSTATE lookups into a merged state unchanged, and are split until next states agree block for block
+		int[] block = new int[stateCount];
+		int blocks = refine(full, live, block, true);
+		int previous = -1;
+		while (blocks != previous) {
+			previous = blocks;
+			blocks = refine(full, live, block, false);
+		}
+
+		// one representative (the first defined) per block, numbered in definition order so the start state stays 0
+		int[] representative = new int[blocks];
+		Arrays.fill(representative, -1);
+		for (int s=0;s<stateCount;++s) {
+			if (live[s] && representative[block[s]] < 0) representative[block[s]] = s;
+		}
+
+		// tag columns: tags with identical columns over the minimised states share an ID, and those matching "**" use it
+		int[] tagClass = new int[tagCount];
+		ArrayList<Integer> classTags = new ArrayList<Integer>();
+		HashMap<String, Integer> columns = new HashMap<String, Integer>();
+		for (int t=0;t<tagCount;++t) {
+			String column = columnKey(full, representative, block, t);
+			Integer c = columns.get(column);
+			if (c == null) {
+				c = classTags.size();
+				columns.put(column, c);
+				classTags.add(t);
+			}
+			tagClass[t] = c;
+		}
+		int classes = classTags.size();
+
+		HashMap<String, Integer> tagIDs = new HashMap<String, Integer>();
+		String[] tagNames = new String[classes];
+		for (int c=0;c<classes;++c) tagNames[c] = full.tagName(classTags.get(c));
+		for (int t=1;t<tagCount;++t) {
+			if (tagClass[t] != MweAutomaton.DEFAULT_TAG_ID) tagIDs.put(full.tagName(t), tagClass[t]);
+		}
+		tagIDs.put(MweAutomaton.DEFAULT_TAG, MweAutomaton.DEFAULT_TAG_ID);
+
+		HashMap<String, Integer> stateIDs = new HashMap<String, Integer>();
+		String[] stateNames = new String[blocks];
+		for (int b=0;b<blocks;++b) stateNames[b] = full.stateName(representative[b]);
+		for (int s=0;s<stateCount;++s) {
+			if (live[s]) stateIDs.put(full.stateName(s), block[s]);
+		}
+
+		short[] actions = new short[blocks * classes];
+		short[] nextStates = new short[blocks * classes];
+		for (int b=0;b<blocks;++b) {
+			for (int c=0;c<classes;++c) {
+				int t = classTags.get(c);
+				actions[b * classes + c] = (short) full.action(representative[b], t);
+				nextStates[b * classes + c] = (short) block[full.nextState(representative[b], t)];
+			}
+		}
+		MweAutomaton minimised = new MweAutomaton(tagIDs, tagNames, stateIDs, stateNames, actions, nextStates);
+		writeReport(full, live, block, tagClass, minimised);
+		return minimised;
+	}
+
+	/*
+	 * refine re-assigns live states to blocks keyed on their action row and (after the first pass) the blocks of
+	 * their next states and their own current block. Returns the number of blocks.
+	 */
+	private int refine (MweAutomaton full, boolean[] live, int[] block, boolean initial) {
+		int stateCount = full.getStateCount();
+		int tagCount = full.getTagCount();
+		HashMap<String, Integer> signatures = new HashMap<String, Integer>();
+		int[] refined = new int[stateCount];
+		for (int s=0;s<stateCount;++s) {
+			if (!live[s]) continue;
+			StringBuffer sig = new StringBuffer();
+			if (!initial) sig.append(block[s]).append('|');
+			for (int t=0;t<tagCount;++t) {
+				sig.append(full.action(s, t));
+				if (!initial) sig.append('>').append(block[full.nextState(s, t)]);
+				sig.append(',');
+			}
+			Integer b = signatures.get(sig.toString());
+			if (b == null) {
+				b = signatures.size();
+				signatures.put(sig.toString(), b);
+			}
+			refined[s] = b;
+		}
+		System.arraycopy(refined, 0, block, 0, stateCount);
+		return signatures.size();
+	}
+
+	private String columnKey (MweAutomaton full, int[] representative, int[] block, int t) {
+		StringBuffer key = new StringBuffer();
+		for (int b=0;b<representative.length;++b) {
+			key.append(full.action(representative[b], t)).append('>').append(block[full.nextState(representative[b], t)]).append(',');
+		}
+		return key.toString();
+	}
+
+	private void writeReport (MweAutomaton full, boolean[] live, int[] block, int[] tagClass, MweAutomaton minimised) {
+		int stateCount = full.getStateCount();
+		report.append("Rows: ").append(states.length).append('\n');
+		report.append("States: ").append(stateCount).append(" defined, ").append(minimised.getStateCount()).append(" after minimisation\n");
+		report.append("Tags: ").append(full.getTagCount()).append(" defined, ").append(minimised.getTagCount()).append(" columns after minimisation\n");
+		report.append("Table cells: ").append(stateCount * full.getTagCount()).append(" -> ")
+			.append(minimised.getStateCount() * minimised.getTagCount()).append('\n');
+		for (int s=0;s<stateCount;++s) {
+			if (!live[s]) report.append("Unreachable: ").append(full.stateName(s)).append('\n');
+		}
+		for (int b=0;b<minimised.getStateCount();++b) {
+			StringBuffer merged = new StringBuffer();
+			for (int s=0;s<stateCount;++s) {
+				if (live[s] && block[s] == b && !full.stateName(s).equals(minimised.stateName(b))) merged.append(' ').append(full.stateName(s));
+			}
+			if (merged.length() > 0) report.append("Merged into ").append(minimised.stateName(b)).append(':').append(merged).append('\n');
+		}
+		for (int c=0;c<minimised.getTagCount();++c) {
+			report.append("Tag column ").append(c).append(':');
+			for (int t=0;t<tagClass.length;++t) {
+				if (tagClass[t] == c) report.append(' ').append(full.tagName(t));
+			}
+			report.append('\n');
+		}
+		for (int b=0;b<minimised.getStateCount();++b) {
+			report.append(minimised.stateName(b)).append(':');
+			for (int c=0;c<minimised.getTagCount();++c) {
+				report.append(' ').append(minimised.tagName(c)).append('=').append(getActionName(minimised.action(b, c)))
+					.append('/').append(minimised.stateName(minimised.nextState(b, c)));
+			}
+			report.append('\n');
+		}
+	}
+
+	/*
+	 * Prints the compilation report for the default English engines
+	 */
+	public static void main (String args[]) {
+		MweEngineCompiler nominal = new MweEngineCompiler(MweEngineDefinition.englishNominalCompounds);
+		nominal.compile();
+		System.out.println("englishNominalCompounds");
+		System.out.println(nominal.getReport());
+		MweEngineCompiler verbal = new MweEngineCompiler(MweEngineDefinition.englishVerbalCompounds);
+		verbal.compile();
+		System.out.println("englishVerbalCompounds");
+		System.out.println(verbal.getReport());
+	}
+}
@@ -0,0 +1,369 @@
+package mesme;
+
+/*
+ * MweEngineCursor holds the run state of a state engine over an immutable MweAutomaton: the current state, 
+ * the chunk being built, the last extraction and the embed point. The automaton can be shared by any number
+ * of threads, each stepping its own cursor, so a cursor is cheap to create and can be reset and reused.
+ * A chunk is held as the positions (tagNo) of its tokens in the input, and extractions are taken as MweSpans
+ * over the input arrays; phrase strings are only built if asked for.
+ */
+public class MweEngineCursor {
+  MweAutomaton automaton;
+
+  public MweEngineCursor (MweAutomaton engine) {
+  	automaton = engine;
+  	currentState = engine.getStartState();
+  }
+
+  MweEngineCursor () {
+  	// automaton supplied later by MweStateEngine
+  }
+
+  public MweAutomaton getAutomaton () {
+  	return automaton;
+  }
+
+  /*
+   * newCursor returns a fresh cursor over the same automaton, in the start state, for another thread or stream.
+   * A subclass that generates or changes stepping overrides it to return its own class
+   */
+  public MweEngineCursor newCursor () {
+  	return new MweEngineCursor(getAutomaton());
+  }
+
+  /*
+   * reset returns the cursor to the start state with an empty chunk, ready for a new document
+   */
+  public void reset () {
+  	currentState = automaton.getStartState();
+  	chunkTokenCount = 0;
+  	extractTokenCount = 0;
+  	hasExtract = false;
+  	chunkStartPt = 0;
+  	chunkStartTagNo = 0;
+  	embedPoint = 0;
+  	embedTokenOffset = 0;
+  	potentialEmbed = false;
+  	isTyped = false;
+  	lastTag = MweAutomaton.DEFAULT_TAG_ID;
+  	priorTag = MweAutomaton.DEFAULT_TAG_ID;
+  }
+
+  // tokens of the current chunk and of the last extraction, with their positions in the input
+  private String[] chunkText = new String[16];
+  private int[] chunkIndex = new int[16];
+  private String[] extractText = new String[16];
+  private int[] extractIndex = new int[16];
+
+  /*
+   * copyRunState makes this cursor's run state (state, tags, chunk and extraction) a copy of another's over the
+   * same automaton
+   */
+  void copyRunState (MweEngineCursor from) {
+  	currentState = from.currentState;
+  	lastTag = from.lastTag;
+  	priorTag = from.priorTag;
+  	chunkText = from.chunkText.clone();
+  	chunkIndex = from.chunkIndex.clone();
+  	extractText = from.extractText.clone();
+  	extractIndex = from.extractIndex.clone();
+  	chunkTokenCount = from.chunkTokenCount;
+  	extractTokenCount = from.extractTokenCount;
+  	hasExtract = from.hasExtract;
+  	chunkStartPt = from.chunkStartPt;
+  	chunkStartTagNo = from.chunkStartTagNo;
+  	embedPoint = from.embedPoint;
+  	embedTokenOffset = from.embedTokenOffset;
+  	potentialEmbed = from.potentialEmbed;
+  	isTyped = from.isTyped;
+  }
+
+  /*
+   * sameRunState is true if stepping this cursor and the other over the same tokens from now on would give the 
+   * same extractions: the same state, tags, chunk positions and chunk start. The extraction is not compared as it
+   * is always taken before the next step.
+   */
+  boolean sameRunState (MweEngineCursor other) {
+  	if (currentState != other.currentState || lastTag != other.lastTag || priorTag != other.priorTag) return false;
+  	if (chunkTokenCount != other.chunkTokenCount || chunkStartPt != other.chunkStartPt || chunkStartTagNo != other.chunkStartTagNo) return false;
+  	if (embedPoint != other.embedPoint || embedTokenOffset != other.embedTokenOffset || potentialEmbed != other.potentialEmbed) return false;
+  	if (isTyped != other.isTyped) return false;
+  	for (int i=0;i<chunkTokenCount;++i) {
+  		if (chunkIndex[i] != other.chunkIndex[i] || !chunkText[i].equals(other.chunkText[i])) return false;
+  	}
+  	return true;
+  }
+
+  private static String join (String[] text, int count) {
+  	StringBuffer sb = new StringBuffer();
+  	for (int i=0;i<count;++i) {
+  		if (i > 0) sb.append(' ');
+  		sb.append(text[i]);
+  	}
+  	return sb.toString();
+  }
+
+  public String getCurrentChunk () {
+  	return join(chunkText, chunkTokenCount);
+  }
+  
+  public int chunkTokenCount = 0; // holds number of tokens in current chunk
+  public int extractTokenCount = 0; // holds number of tokens in current extract
+  
+  private boolean mweState = false;
+  public boolean isMWE () {
+  	return mweState;
+  }
+  
+  private boolean hasExtract = false;
+  public String getExtractMWE () {
+  	String mwe = null;
+  	if (hasExtract) mwe = join(extractText, extractTokenCount);
+  	hasExtract = false;
+  	isTyped = false;
+  	return mwe;
+  }
+
+  /*
+   * takeSpan reads and clears the current extraction after the cursor has been stepped over token tokenNo,
+   * in the same way as getExtractMWE. Returns null if the engine did not commit an extraction on that token
+   */
+  public MweSpan takeSpan (int tokenNo) {
+  	boolean typed = isTyped;
+  	boolean extracted = hasExtract;
+  	hasExtract = false;
+  	isTyped = false;
+  	if (!extracted) return null;
+  	MweSpan span = new MweSpan();
+  	span.tokenNo = tokenNo;
+  	span.tokenCount = extractTokenCount;
+  	span.startIndex = chunkStartTagNo;
+  	if (extractTokenCount > 0) {
+  		span.startIndex = extractIndex[0];
+  		int last = extractTokenCount - 1;
+  		if (extractIndex[last] - extractIndex[0] != last) { // tokens were skipped inside the chunk
+  			span.tokenIndices = new int[extractTokenCount];
+  			System.arraycopy(extractIndex, 0, span.tokenIndices, 0, extractTokenCount);
+  		}
+  	}
+  	span.startOffset = chunkStartPt;
+  	span.typed = typed;
+  	span.embed = hasEmbed();
+  	span.embedTokenOffset = embedTokenOffset;
+  	return span;
+  }
+
+  private int chunkStartPt = 0;
+  public int chunkStartPt() {
+  	return chunkStartPt;
+  }
+  private int chunkStartTagNo = 0;
+  public int chunkStartIndex() {
+  	return chunkStartTagNo;
+  }
+  private String embedChunk = "";
+  public String getEmbed () {
+  	String extract = null;
+  	if (hasExtract) extract = join(extractText, extractTokenCount);
+  	String mwe = new String (embedChunk+" "+extract);
+  	return mwe;
+  }
+  private int embedPoint = 0;
+  public int embedOffset() {
+  	return embedPoint;
+  }
+  private int embedTokenOffset = 0;
+  public int embedTokenOffset() {
+  	return embedTokenOffset;
+  }
+  private boolean potentialEmbed = false;
+  public boolean hasEmbed() {
+  	if (!potentialEmbed) return false;
+  	if (!hasExtract) potentialEmbed = false;
+  	return potentialEmbed;
+  }
+  private boolean isTyped = false;
+  public boolean currentMweIsTyped() {
+  	return isTyped;
+  }
+  int currentState = -1;
+  public String getCurrentState () {
+  	if (currentState < 0) return null;
+  	return automaton.stateName(currentState);
+  }
+  int lastTag = MweAutomaton.DEFAULT_TAG_ID;
+  int priorTag = MweAutomaton.DEFAULT_TAG_ID;
+  
+  /*
+   * stepEngine carries out the programmed action for the state machine given the observed tag and steps the engine to the next state 
+   */
+  public void stepEngine (String tag, String token, int indexPoint, int tagNo) {
+  	stepEngine (automaton.tagID(tag), token, indexPoint, tagNo);
+  }
+
+  /*
+   * As above, but with the tag already coded as an ID of this engine's automaton
+   */
+  public void stepEngine (int tagID, String token, int indexPoint, int tagNo) {
+    // Get and carry out action for tag in current state
+  	int action = automaton.action(currentState, tagID);
+  	int next = automaton.nextState(currentState, tagID);
+	  if (action==MweStateEngine.SUBSTATE) { // Need to set up secondary test
+	    action = automaton.action(next, priorTag);
+	  }
+	  performAction(action, token, indexPoint, tagNo);
+
+  	// update parameters and move engine to next state
+  	lastTag = tagID;
+  	currentState = next;
+  }
+
+  final void performAction (int action, String token, int indexPoint, int tagNo) {
+	  switch (action) {
+  	case (0) : break; // do nothing
+  	case (MweStateEngine.ADD_TOKEN) : addToken(token, indexPoint, tagNo); break;
+  	case (MweStateEngine.CLEAR_CHUNK) : clearChunk(); break;
+  	case (MweStateEngine.CLEAR_ADD) : clearAdd(token, indexPoint, tagNo); break;
+  	case (MweStateEngine.SET_MWE) : setMwe(); break;
+  	case (MweStateEngine.SET_MWE_CLEAR) : setMweClear(); break;
+  	case (MweStateEngine.SET_MWE_ADD) : setMweAdd(token, tagNo); break;
+  	case (MweStateEngine.SET_MWE_ADDEMBED) : setMweAddEmbed(token, tagNo); break;
+  	case (MweStateEngine.SET_MWE_SUBTYPE) : setMweSubtype(); break;
+  	case (MweStateEngine.SET_MWE_SUBTYPE_CLEAR) : setMweSubtypeClear(); break;
+  	case (MweStateEngine.ADD_SET_MWE) : addSetMwe(token, indexPoint, tagNo); break;
+  	case (MweStateEngine.ADD_SET_MWE_CLEAR) : addSetMweClear(token, indexPoint, tagNo); break;
+  	case (MweStateEngine.ADD_SET_MWE_SUBTYPE) : addSetMweSubtype(token, indexPoint, tagNo); break;
+  	case (MweStateEngine.ADD_SET_MWE_SUBTYPE_CLEAR) : addSetMweSubtypeClear(token, indexPoint, tagNo); break;
+  	case (MweStateEngine.ADD_SET_MWE_SUBTYPE_CLEAR_ADD) : addSetMweSubtypeClearAdd(token, indexPoint, tagNo); break;
+  	case (MweStateEngine.CONTINUE) : continueChunk(token, tagNo); break;
+  	case (MweStateEngine.SKIP) : break; // do nothing
+  	}
+  }
+
+  /*
+   * Action bodies. They are small and final so that generated engines can call the one they need directly
+   * and have it inlined, while the interpreted switch above stays the reference behaviour.
+   */
+  final void addToken (String token, int indexPoint, int tagNo) {
+		if (chunkTokenCount==0) {
+			chunkStartPt = indexPoint;
+			chunkStartTagNo = tagNo;
+			priorTag = lastTag;
+		}
+		append(token, tagNo);
+  }
+
+  final void clearChunk () {
+  	chunkTokenCount = 0;
+  	potentialEmbed = false;
+  }
+
+  final void clearAdd (String token, int indexPoint, int tagNo) {
+  	potentialEmbed = false;
+  	priorTag = lastTag;
+		chunkTokenCount = 0;
+		append(token, tagNo);
+		chunkStartPt = indexPoint;
+		chunkStartTagNo = tagNo;
+  }
+
+  final void setMwe () {
+  	if (extractText.length < chunkTokenCount) {
+  		extractText = new String[chunkText.length];
+  		extractIndex = new int[chunkText.length];
+  	}
+  	System.arraycopy(chunkText, 0, extractText, 0, chunkTokenCount);
+  	System.arraycopy(chunkIndex, 0, extractIndex, 0, chunkTokenCount);
+  	extractTokenCount = chunkTokenCount;
+  	hasExtract = true;
+  }
+
+  final void setMweClear () {
+  	setMwe();
+		chunkTokenCount = 0;
+  }
+
+  final void setMweAdd (String token, int tagNo) {
+  	setMwe();
+		append(token, tagNo);
+  }
+
+  final void setMweAddEmbed (String token, int tagNo) {
+  	setMwe();
+  	int chars = 0;
+  	for (int i=0;i<chunkTokenCount;++i) chars += chunkText[i].length() + 1;
+    embedPoint = chars;
+    embedTokenOffset = extractTokenCount;
+  	isTyped = false;
+		append(token, tagNo);
+		potentialEmbed = true;
+  }
+
+  final void setMweSubtype () {
+  	setMwe();
+	  isTyped = true;
+  }
+
+  final void setMweSubtypeClear () {
+  	setMweSubtype();
+		chunkTokenCount = 0;
+  	potentialEmbed = false;
+  }
+
+  // adds the token to the chunk, growing the buffers if needed
+  private void append (String token, int tagNo) {
+  	if (chunkTokenCount == chunkText.length) {
+  		String[] text = new String[chunkTokenCount * 2];
+  		int[] index = new int[chunkTokenCount * 2];
+  		System.arraycopy(chunkText, 0, text, 0, chunkTokenCount);
+  		System.arraycopy(chunkIndex, 0, index, 0, chunkTokenCount);
+  		chunkText = text;
+  		chunkIndex = index;
+  	}
+  	chunkText[chunkTokenCount] = token;
+  	chunkIndex[chunkTokenCount] = tagNo;
+  	chunkTokenCount++;
+  }
+
+  // appends the token, starting a new chunk if empty, without recording the prior tag
+  private void appendToken (String token, int indexPoint, int tagNo) {
+		if (chunkTokenCount==0) {
+			chunkStartPt = indexPoint;
+			chunkStartTagNo = tagNo;
+		}
+		append(token, tagNo);
+  }
+
+  final void addSetMwe (String token, int indexPoint, int tagNo) {
+  	appendToken(token, indexPoint, tagNo);
+  	setMwe();
+  	isTyped = false;
+  }
+
+  final void addSetMweClear (String token, int indexPoint, int tagNo) {
+  	addSetMwe(token, indexPoint, tagNo);
+		chunkTokenCount = 0;
+  	potentialEmbed = false;
+  }
+
+  final void addSetMweSubtype (String token, int indexPoint, int tagNo) {
+  	appendToken(token, indexPoint, tagNo);
+	  isTyped = true;
+	  setMwe();
+  }
+
+  final void addSetMweSubtypeClear (String token, int indexPoint, int tagNo) {
+  	addSetMweSubtype(token, indexPoint, tagNo);
+		chunkTokenCount = 0;
+  	potentialEmbed = false;
+  }
+
+  final void addSetMweSubtypeClearAdd (String token, int indexPoint, int tagNo) {
+  	addSetMweSubtype(token, indexPoint, tagNo);
+  	clearAdd(token, indexPoint, tagNo);
+  }
+
+  final void continueChunk (String token, int tagNo) {
+		if (chunkTokenCount > 0) append(token, tagNo);
+  }
+}
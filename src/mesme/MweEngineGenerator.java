@@ -0,0 +1,174 @@
+package mesme;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*
+ * MweEngineGenerator writes a dedicated MweEngineCursor subclass for a compiled engine definition.
+ * The generated stepEngine is a nested switch on state and tag ID that calls each cell's action directly,
+ * with SUBSTATE lookbacks expanded into a switch on the prior tag, so the JIT sees one small monomorphic
+ * engine per definition. The interpreted MweEngineCursor remains the reference implementation.
+ * Run main to regenerate the default English engines whenever MweEngineDefinition changes.
+ */
+public class MweEngineGenerator {
+
+	private MweAutomaton engine;
+	private StringBuffer code = new StringBuffer();
+
+	public MweEngineGenerator (MweAutomaton engine) {
+		this.engine = engine;
+	}
+
+	/*
+	 * generate returns the source of the engine class. If sharedEngine is not null it is the expression used
+	 * by the no argument constructor to get the automaton, e.g. "MweAutomaton.englishNominalCompounds()"
+	 */
+	public String generate (String className, String definitionName, String sharedEngine) {
+		code.setLength(0);
+		code.append("package mesme;\n\n");
+		code.append("/*\n");
+		code.append(" * Generated by MweEngineGenerator from ").append(definitionName).append(" - do not edit.\n");
+		code.append(" * A ").append(engine.getStateCount()).append(" state, ").append(engine.getTagCount())
+			.append(" tag column engine with each transition compiled into a nested switch.\n");
+		code.append(" */\n");
+		code.append("public final class ").append(className).append(" extends MweEngineCursor {\n");
+		code.append("\tpublic static final int TABLE_HASH = ").append(engine.tableHash()).append(";\n\n");
+		if (sharedEngine != null) {
+			code.append("\tpublic ").append(className).append(" () {\n");
+			code.append("\t\tthis (").append(sharedEngine).append(");\n");
+			code.append("\t}\n\n");
+		}
+		code.append("\tpublic ").append(className).append(" (MweAutomaton engine) {\n");
+		code.append("\t\tsuper (engine);\n");
+		code.append("\t\tif (!matches(engine)) System.err.println(\"").append(className)
+			.append(" was generated from a different engine definition\");\n");
+		code.append("\t}\n\n");
+		code.append("\t/*\n\t * matches is true if the automaton has the tables this class was generated from\n\t */\n");
+		code.append("\tpublic static boolean matches (MweAutomaton engine) {\n");
+		code.append("\t\treturn engine.tableHash() == TABLE_HASH;\n");
+		code.append("\t}\n\n");
+		code.append("\tpublic MweEngineCursor newCursor () {\n");
+		code.append("\t\treturn new ").append(className).append("(automaton);\n");
+		code.append("\t}\n\n");
+		code.append("\tpublic void stepEngine (int tagID, String token, int indexPoint, int tagNo) {\n");
+		code.append("\t\tint next;\n");
+		code.append("\t\tswitch (currentState) {\n");
+		for (int s=0;s<engine.getStateCount();++s) {
+			code.append("\t\tcase ").append(s).append(" : // ").append(engine.stateName(s)).append('\n');
+			code.append("\t\t\tswitch (tagID) {\n");
+			for (ArrayList<Integer> group : groupTags(s)) {
+				int t = group.get(0);
+				appendCases(group, "\t\t\t");
+				int action = engine.action(s, t);
+				int next = engine.nextState(s, t);
+				if (action == MweStateEngine.SUBSTATE) {
+					code.append("\t\t\t\tswitch (priorTag) {\n");
+					for (ArrayList<Integer> priorGroup : groupTags(next)) {
+						appendCases(priorGroup, "\t\t\t\t");
+						appendAction(engine.action(next, priorGroup.get(0)), "\t\t\t\t\t");
+						code.append("\t\t\t\t\tbreak;\n");
+					}
+					code.append("\t\t\t\t}\n");
+				}
+				else {
+					appendAction(action, "\t\t\t\t");
+				}
+				code.append("\t\t\t\tnext = ").append(next).append("; // ").append(engine.stateName(next)).append('\n');
+				code.append("\t\t\t\tbreak;\n");
+			}
+			code.append("\t\t\t}\n");
+			code.append("\t\t\tbreak;\n");
+		}
+		code.append("\t\tdefault :\n");
+		code.append("\t\t\tnext = currentState;\n");
+		code.append("\t\t}\n\n");
+		code.append("\t\t// update parameters and move engine to next state\n");
+		code.append("\t\tlastTag = tagID;\n");
+		code.append("\t\tcurrentState = next;\n");
+		code.append("\t}\n");
+		code.append("}\n");
+		return code.toString();
+	}
+
+	/*
+	 * groupTags groups the tag IDs of a state by identical action and next state. The group holding the
+	 * "**" column comes last and becomes the default case.
+	 */
+	private ArrayList<ArrayList<Integer>> groupTags (int state) {
+		HashMap<Integer, ArrayList<Integer>> groups = new HashMap<Integer, ArrayList<Integer>>();
+		ArrayList<ArrayList<Integer>> ordered = new ArrayList<ArrayList<Integer>>();
+		for (int t=1;t<engine.getTagCount();++t) {
+			int key = transitionKey(state, t);
+			if (key == transitionKey(state, MweAutomaton.DEFAULT_TAG_ID)) continue;
+			ArrayList<Integer> group = groups.get(key);
+			if (group == null) {
+				group = new ArrayList<Integer>();
+				groups.put(key, group);
+				ordered.add(group);
+			}
+			group.add(t);
+		}
+		ArrayList<Integer> defaults = new ArrayList<Integer>();
+		defaults.add(MweAutomaton.DEFAULT_TAG_ID);
+		ordered.add(defaults);
+		return ordered;
+	}
+
+	private int transitionKey (int state, int tagID) {
+		return engine.action(state, tagID) * 65536 + engine.nextState(state, tagID);
+	}
+
+	private void appendCases (ArrayList<Integer> group, String indent) {
+		if (group.get(0) == MweAutomaton.DEFAULT_TAG_ID) {
+			code.append(indent).append("default :\n");
+			return;
+		}
+		for (int t : group) {
+			code.append(indent).append("case ").append(t).append(" : // ").append(engine.tagName(t)).append('\n');
+		}
+	}
+
+	private void appendAction (int action, String indent) {
+		String call = null;
+		switch (action) {
+		case (MweStateEngine.ADD_TOKEN) : call = "addToken(token, indexPoint, tagNo);"; break;
+		case (MweStateEngine.CLEAR_CHUNK) : call = "clearChunk();"; break;
+		case (MweStateEngine.CLEAR_ADD) : call = "clearAdd(token, indexPoint, tagNo);"; break;
+		case (MweStateEngine.SET_MWE) : call = "setMwe();"; break;
+		case (MweStateEngine.SET_MWE_CLEAR) : call = "setMweClear();"; break;
+		case (MweStateEngine.SET_MWE_ADD) : call = "setMweAdd(token, tagNo);"; break;
+		case (MweStateEngine.SET_MWE_ADDEMBED) : call = "setMweAddEmbed(token, tagNo);"; break;
+		case (MweStateEngine.SET_MWE_SUBTYPE) : call = "setMweSubtype();"; break;
+		case (MweStateEngine.SET_MWE_SUBTYPE_CLEAR) : call = "setMweSubtypeClear();"; break;
+		case (MweStateEngine.ADD_SET_MWE) : call = "addSetMwe(token, indexPoint, tagNo);"; break;
+		case (MweStateEngine.ADD_SET_MWE_CLEAR) : call = "addSetMweClear(token, indexPoint, tagNo);"; break;
+		case (MweStateEngine.ADD_SET_MWE_SUBTYPE) : call = "addSetMweSubtype(token, indexPoint, tagNo);"; break;
+		case (MweStateEngine.ADD_SET_MWE_SUBTYPE_CLEAR) : call = "addSetMweSubtypeClear(token, indexPoint, tagNo);"; break;
+		case (MweStateEngine.ADD_SET_MWE_SUBTYPE_CLEAR_ADD) : call = "addSetMweSubtypeClearAdd(token, indexPoint, tagNo);"; break;
+		case (MweStateEngine.CONTINUE) : call = "continueChunk(token, tagNo);"; break;
+		}
+		if (call != null) code.append(indent).append(call).append('\n');
+	}
+
+	public void writeClass (String filename, String className, String definitionName, String sharedEngine) {
+		try (FileWriter out = new FileWriter(filename)) {
+			out.write(generate(className, definitionName, sharedEngine));
+		} catch (IOException e) {
+			System.err.println("Can not write "+filename);
+		}
+	}
+
+	/*
+	 * Regenerates the default English engines into the given source directory (default ./src/mesme)
+	 */
+	public static void main (String args[]) {
+		String dir = "./src/mesme";
+		if (args.length > 0) dir = args[0];
+		new MweEngineGenerator(MweAutomaton.englishNominalCompounds()).writeClass(dir+"/MweNominalCompoundsEngine.java",
+				"MweNominalCompoundsEngine", "MweEngineDefinition.englishNominalCompounds", "MweAutomaton.englishNominalCompounds()");
+		new MweEngineGenerator(MweAutomaton.englishVerbalCompounds()).writeClass(dir+"/MweVerbalCompoundsEngine.java",
+				"MweVerbalCompoundsEngine", "MweEngineDefinition.englishVerbalCompounds", "MweAutomaton.englishVerbalCompounds()");
+	}
+}
@@ -0,0 +1,183 @@
+package mesme;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.StringTokenizer;
+
+/*
+ * MweEngineLoader reads engine definitions from text files, so engines for other domains can be shipped without
+ * recompiling. A definition file holds one STATE TAG ACTION NEXT-STATE row per line, separated by white space,
+ * in the same shape as the tables in MweEngineDefinition. Blank lines and lines starting with "//" are ignored.
+ * The compiled (minimised) automaton is cached next to the definition as <definition>.bin, keyed by a SHA-256
+ * hash of the definition text and the compiler version, so later loads just map the cached tables and only an
+ * edited definition (or a changed compiler) is compiled again. The cache is written to a temporary file and
+ * renamed into place, so a process mapping it never sees a partly written file.
+ */
+public class MweEngineLoader {
+	public static final String CACHE_SUFFIX = ".bin";
+	private static final int MAGIC = 0x4D574541; // "MWEA"
+	private static final int FORMAT_VERSION = 1;
+
+	/*
+	 * load returns the automaton for a definition file, from the cache if it is current, otherwise compiled and
+	 * cached. Returns null if the definition can not be read or is not a valid table
+	 */
+	public static MweAutomaton load (String definitionFilename) {
+		byte[] text;
+		try {
+			text = Files.readAllBytes(new File(definitionFilename).toPath());
+		} catch (IOException e) {
+			System.err.println("Can not read engine definition: "+definitionFilename);
+			return null;
+		}
+		byte[] hash = contentHash(text);
+		File cache = new File(definitionFilename + CACHE_SUFFIX);
+		if (hash != null && cache.exists()) {
+			MweAutomaton engine = readCache(cache, hash);
+			if (engine != null) return engine;
+		}
+		String[] stateSpec = parseDefinition(text, definitionFilename);
+		if (stateSpec == null) return null;
+		MweAutomaton engine = MweAutomaton.compile(stateSpec);
+		if (engine != null && hash != null) writeCache(cache, hash, engine);
+		return engine;
+	}
+
+	/*
+	 * readDefinition returns the rows of a definition file as a flat 4 column table, as used by
+	 * MweStateEngine.initialise, or null if the file can not be read or a row does not have 4 columns
+	 */
+	public static String[] readDefinition (String definitionFilename) {
+		try {
+			return parseDefinition(Files.readAllBytes(new File(definitionFilename).toPath()), definitionFilename);
+		} catch (IOException e) {
+			System.err.println("Can not read engine definition: "+definitionFilename);
+			return null;
+		}
+	}
+
+	private static String[] parseDefinition (byte[] text, String definitionFilename) {
+		ArrayList<String> table = new ArrayList<String>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(text), StandardCharsets.UTF_8))) {
+			String line;
+			int lineNo = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNo++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("//")) continue;
+				StringTokenizer columns = new StringTokenizer(line);
+				if (columns.countTokens() != 4) {
+					System.err.println("Engine definition "+definitionFilename+" line "+lineNo+" does not have 4 columns: "+line);
+					return null;
+				}
+				while (columns.hasMoreTokens()) table.add(columns.nextToken());
+			}
+		} catch (IOException e) {
+			System.err.println("Can not read engine definition: "+definitionFilename);
+			return null;
+		}
+		if (table.isEmpty()) {
+			System.err.println("Engine definition "+definitionFilename+" is empty");
+			return null;
+		}
+		return table.toArray(new String[table.size()]);
+	}
+
+	/*
+	 * writeDefinition writes a 4 column table, such as those in MweEngineDefinition, as a definition file
+	 */
+	public static boolean writeDefinition (String[] stateSpec, String definitionFilename) {
+		try (FileWriter out = new FileWriter(definitionFilename)) {
+			out.write("// STATE\tTAG\tACTION\tNEXT-STATE\n");
+			for (int i=0;i+3<stateSpec.length;i+=4) {
+				out.write(stateSpec[i]+"\t"+stateSpec[i+1]+"\t"+stateSpec[i+2]+"\t"+stateSpec[i+3]+"\n");
+			}
+			return true;
+		} catch (IOException e) {
+			System.err.println("Can not write "+definitionFilename);
+			return false;
+		}
+	}
+
+	private static byte[] contentHash (byte[] text) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(text);
+			digest.update(("\ncompiler "+MweEngineCompiler.VERSION).getBytes(StandardCharsets.UTF_8));
+			return digest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			return null; // no cache without a hash
+		}
+	}
+
+	/*
+	 * readCache maps the cache file and reads the automaton, or returns null if the file is not a cache of
+	 * this definition text in the current format
+	 */
+	private static MweAutomaton readCache (File cache, byte[] hash) {
+		try (FileChannel channel = FileChannel.open(cache.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) return null;
+			byte[] cachedHash = new byte[in.getInt()];
+			in.get(cachedHash);
+			if (!Arrays.equals(cachedHash, hash)) return null;
+			return MweAutomaton.readTables(in);
+		} catch (Exception | InternalError e) { // InternalError if the mapped file shrinks while read
+			System.err.println("Ignoring unreadable engine cache: "+cache.getPath());
+			return null;
+		}
+	}
+
+	/*
+	 * writeCache writes the cache beside its final name and moves it into place in one step, so workers starting
+	 * together each see either no cache, an old one or the complete new one
+	 */
+	private static void writeCache (File cache, byte[] hash, MweAutomaton engine) {
+		File temp = null;
+		try {
+			File dir = cache.getAbsoluteFile().getParentFile();
+			temp = File.createTempFile(cache.getName()+".", ".tmp", dir);
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeInt(hash.length);
+				out.write(hash);
+				engine.writeTables(out);
+			}
+			Files.move(temp.toPath(), cache.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			System.err.println("Can not write engine cache: "+cache.getPath()); // still usable, just compiled every time
+			if (temp != null) temp.delete();
+		}
+	}
+
+	/*
+	 * Writes the default English engine definitions as definition files into the given directory
+	 * (default ./resources/engines), as a starting point for domain specific engines
+	 */
+	public static void main (String args[]) {
+		String dir = "./resources/engines";
+		if (args.length > 0) dir = args[0];
+		new File(dir).mkdirs();
+		writeDefinition(MweEngineDefinition.englishNominalCompounds, dir+"/englishNominalCompounds.txt");
+		writeDefinition(MweEngineDefinition.englishVerbalCompounds, dir+"/englishVerbalCompounds.txt");
+	}
+}
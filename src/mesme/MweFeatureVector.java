@@ -0,0 +1,110 @@
+package mesme;
+
+/*
+ * MweFeatureVector is a sparse SVM feature vector held as parallel index and value arrays, in the order the
+ * features were added. MweSvmVectorMaker fills one and MweActiveLearner scores it directly, so a buffer can be
+ * reused for every candidate; the "index:value " string form is only built by toString when it is wanted.
+ */
+public class MweFeatureVector {
+	private int[] indices;
+	private double[] values;
+	private int count = 0;
+
+	public MweFeatureVector () {
+		this (64);
+	}
+
+	public MweFeatureVector (int capacity) {
+		indices = new int[capacity];
+		values = new double[capacity];
+	}
+
+	public void clear () {
+		count = 0;
+	}
+
+	public void add (int index, double value) {
+		if (count == indices.length) {
+			int[] i = new int[count * 2];
+			double[] v = new double[count * 2];
+			System.arraycopy(indices, 0, i, 0, count);
+			System.arraycopy(values, 0, v, 0, count);
+			indices = i;
+			values = v;
+		}
+		indices[count] = index;
+		values[count] = value;
+		count++;
+	}
+
+	public int size () {
+		return count;
+	}
+
+	public int index (int i) {
+		return indices[i];
+	}
+
+	public double value (int i) {
+		return values[i];
+	}
+
+	/*
+	 * The arrays are shared, not copied, and hold size() features
+	 */
+	public int[] getIndices () {
+		return indices;
+	}
+
+	public double[] getValues () {
+		return values;
+	}
+
+	/*
+	 * copy returns a vector of just this one's features, for keeping after the buffer is reused
+	 */
+	public MweFeatureVector copy () {
+		MweFeatureVector copy = new MweFeatureVector(Math.max(count, 1));
+		System.arraycopy(indices, 0, copy.indices, 0, count);
+		System.arraycopy(values, 0, copy.values, 0, count);
+		copy.count = count;
+		return copy;
+	}
+
+	/*
+	 * Vectors are equal if they hold the same features in the same order
+	 */
+	public boolean equals (Object o) {
+		if (!(o instanceof MweFeatureVector)) return false;
+		MweFeatureVector other = (MweFeatureVector) o;
+		if (other.count != count) return false;
+		for (int i=0;i<count;++i) {
+			if (indices[i] != other.indices[i] || Double.compare(values[i], other.values[i]) != 0) return false;
+		}
+		return true;
+	}
+
+	public int hashCode () {
+		int hash = count;
+		for (int i=0;i<count;++i) {
+			long bits = Double.doubleToLongBits(values[i]);
+			hash = hash * 31 + indices[i];
+			hash = hash * 31 + (int) (bits ^ (bits >>> 32));
+		}
+		return hash;
+	}
+
+	/*
+	 * toString gives the vector in SVM light format, "15:1 56:1 ", as MweSvmVectorMaker.svmVector returns it
+	 */
+	public String toString () {
+		StringBuffer sb = new StringBuffer();
+		for (int i=0;i<count;++i) {
+			sb.append(indices[i]);
+			sb.append(':');
+			if (values[i] == (int) values[i]) sb.append((int) values[i]); else sb.append(values[i]);
+			sb.append(' ');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,36 @@
+package mesme;
+
+import libsvm.*;
+
+/*
+ * MweLibsvmTrainer trains with libsvm's svm_train: a C-SVC with a linear kernel, C = 1 and probability
+ * estimates, as MweActiveLearner always has. The parameters can be changed through getParameter.
+ */
+public class MweLibsvmTrainer implements MweTrainer {
+	private svm_parameter param = new svm_parameter();
+
+	public MweLibsvmTrainer () {
+		param.probability = 1;
+		param.gamma = 0.5;
+		param.nu = 0.5;
+		param.C = 1;
+		param.svm_type = svm_parameter.C_SVC;
+		param.kernel_type = svm_parameter.LINEAR;
+		param.cache_size = 20000;
+		param.eps = 0.001;
+	}
+
+	public svm_parameter getParameter () {
+		return param;
+	}
+
+	public svm_model train (MweTrainingStore data) {
+		svm_problem problem = data.toProblem();
+		String error = svm.svm_check_parameter(problem, param);
+		if (error != null) {
+			System.err.println("Can not train: "+error);
+			return null;
+		}
+		return svm.svm_train(problem, param);
+	}
+}
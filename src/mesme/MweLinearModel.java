@@ -0,0 +1,383 @@
+package mesme;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.ShortBuffer;
+
+import libsvm.*;
+
+/*
+ * MweLinearModel is a two class linear kernel libsvm model folded into a single weight vector and bias, so a
+ * candidate is scored with one sparse dot product instead of one per support vector. Probabilities use the
+ * model's probA/probB sigmoid and the same pairwise coupling as svm.svm_predict_probability, so results match
+ * libsvm (to rounding).
+ * libsvm's sparse dot product assumes ascending feature indices: a feature whose index is not above every index
+ * before it in the vector is never matched. Scoring only counts those same features, so unsorted vectors (the
+ * lexical features of MweSvmVectorMaker are in first-seen order) also score as libsvm scores them.
+ * A model can be pruned (small weights set to 0) and quantized to 16 bit floats or 8 bit integers with one
+ * scale for the model, to shrink it; see MwePruner. Quantized models are scored straight from the small weights.
+ * Weights read from a binary model file (MweModelFile.read) are buffer views over the mapped file and are
+ * scored from it in place, so processes loading the same file share its pages.
+ */
+public class MweLinearModel {
+	private double[] weights;            // 64 bit weights on the heap, or null
+	private DoubleBuffer mappedWeights;  // 64 bit weights in a mapped file, or null
+	private ByteBuffer weights8;         // 8 bit weights, times scale
+	private ShortBuffer weights16;       // IEEE 754 half precision weights
+	private double scale = 1;
+	private int dimensions;
+	private double bias;   // -rho
+	private double probA;
+	private double probB;
+	private int[] labels;
+
+	private MweLinearModel () {
+	}
+
+	MweLinearModel (byte[] weights8, double scale, double bias, double probA, double probB, int[] labels) {
+		this (ByteBuffer.wrap(weights8), scale, bias, probA, probB, labels);
+	}
+
+	MweLinearModel (short[] weights16, double bias, double probA, double probB, int[] labels) {
+		this (ShortBuffer.wrap(weights16), bias, probA, probB, labels);
+	}
+
+	/*
+	 * The buffer constructors keep the given views (from position 0 to the limit) as the weights, not copies
+	 */
+	MweLinearModel (ByteBuffer weights8, double scale, double bias, double probA, double probB, int[] labels) {
+		this.weights8 = weights8;
+		this.scale = scale;
+		dimensions = weights8.limit();
+		this.bias = bias;
+		this.probA = probA;
+		this.probB = probB;
+		this.labels = labels;
+	}
+
+	MweLinearModel (ShortBuffer weights16, double bias, double probA, double probB, int[] labels) {
+		this.weights16 = weights16;
+		dimensions = weights16.limit();
+		this.bias = bias;
+		this.probA = probA;
+		this.probB = probB;
+		this.labels = labels;
+	}
+
+	MweLinearModel (DoubleBuffer mappedWeights, double bias, double probA, double probB, int[] labels) {
+		this.mappedWeights = mappedWeights;
+		dimensions = mappedWeights.limit();
+		this.bias = bias;
+		this.probA = probA;
+		this.probB = probB;
+		this.labels = labels;
+	}
+
+	MweLinearModel (double[] weights, double bias, double probA, double probB, int[] labels) {
+		this.weights = weights;
+		dimensions = weights.length;
+		this.bias = bias;
+		this.probA = probA;
+		this.probB = probB;
+		this.labels = labels;
+	}
+
+	/*
+	 * fromModel folds a model into weights, or returns null if it is not a two class linear model with
+	 * probability information, in which case it should be used through libsvm
+	 */
+	public static MweLinearModel fromModel (svm_model model) {
+		if (model == null || model.param == null) return null;
+		if (model.param.kernel_type != svm_parameter.LINEAR || model.nr_class != 2) return null;
+		if (model.param.svm_type != svm_parameter.C_SVC && model.param.svm_type != svm_parameter.NU_SVC) return null;
+		if (model.probA == null || model.probB == null) return null;
+		int maxIndex = 0;
+		for (int i=0;i<model.l;++i) {
+			for (svm_node node : model.SV[i]) if (node.index > maxIndex) maxIndex = node.index;
+		}
+		MweLinearModel linear = new MweLinearModel();
+		linear.weights = new double[maxIndex + 1];
+		linear.dimensions = maxIndex + 1;
+		for (int i=0;i<model.l;++i) {
+			double coef = model.sv_coef[0][i];
+			for (svm_node node : model.SV[i]) {
+				if (node.index >= 0) linear.weights[node.index] += coef * node.value;
+			}
+		}
+		linear.bias = -model.rho[0];
+		linear.probA = model.probA[0];
+		linear.probB = model.probB[0];
+		linear.labels = model.label.clone();
+		return linear;
+	}
+
+	public int getDimensions () {
+		return dimensions;
+	}
+
+	/*
+	 * getQuantization is the bits per weight: 64, or 16 or 8 if quantized
+	 */
+	public int getQuantization () {
+		if (weights8 != null) return 8;
+		if (weights16 != null) return 16;
+		return 64;
+	}
+
+	public int getNonZeroWeights () {
+		int n = 0;
+		for (int i=0;i<dimensions;++i) if (weight(i) != 0) n++;
+		return n;
+	}
+
+	public int getWeightBytes () {
+		return dimensions * getQuantization() / 8;
+	}
+
+	public double weight (int index) {
+		if (weights != null) return weights[index];
+		if (mappedWeights != null) return mappedWeights.get(index);
+		if (weights8 != null) return weights8.get(index) * scale;
+		return fromHalf(weights16.get(index));
+	}
+
+	/*
+	 * The quantized weights, as stored; only valid for a model of that quantization
+	 */
+	byte weight8 (int index) {
+		return weights8.get(index);
+	}
+
+	short weight16 (int index) {
+		return weights16.get(index);
+	}
+
+	/*
+	 * isMapped is true if the weights are read in place from a buffer rather than held in arrays of their own
+	 */
+	public boolean isMapped () {
+		return mappedWeights != null || (weights8 != null && !weights8.hasArray()) || (weights16 != null && !weights16.hasArray());
+	}
+
+	double getScale () {
+		return scale;
+	}
+
+	double getBias () {
+		return bias;
+	}
+
+	double getProbA () {
+		return probA;
+	}
+
+	double getProbB () {
+		return probB;
+	}
+
+	int[] getLabels () {
+		return labels;
+	}
+
+	/*
+	 * decisionValue is the SVM decision value for a sparse vector of count features
+	 */
+	public double decisionValue (int[] indices, double[] values, int count) {
+		double sum = 0;
+		int max = Integer.MIN_VALUE;
+		for (int i=0;i<count;++i) {
+			int index = indices[i];
+			if (index <= max) continue; // libsvm never matches a feature that is out of order
+			max = index;
+			if (index >= 0 && index < dimensions) sum += weight(index) * values[i];
+		}
+		return sum + bias;
+	}
+
+	/*
+	 * predictProbability fills probEstimates with the probability of each class, in the model's label order,
+	 * and returns the most probable label
+	 */
+	public double predictProbability (int[] indices, double[] values, int count, double[] probEstimates) {
+		return probability(decisionValue(indices, values, count), probEstimates);
+	}
+
+	private double probability (double decision, double[] probEstimates) {
+		double minProb = 1e-7;
+		double pairwise = Math.min(Math.max(sigmoid(decision), minProb), 1 - minProb);
+		double[][] r = {{0, pairwise}, {1 - pairwise, 0}};
+		coupleProbabilities(r, probEstimates);
+		int best = 0;
+		if (probEstimates[1] > probEstimates[0]) best = 1;
+		return labels[best];
+	}
+
+	/*
+	 * predictProbabilities scores count vectors in one kernel call, returning each one's class probabilities as
+	 * predictProbability does. Features libsvm would not match, or with no weight, are dropped before the kernel.
+	 * Weights not held as a double array (mapped or quantized) are first read, in batch order, into one that is
+	 */
+	public double[][] predictProbabilities (MweFeatureVector[] vectors, int count, MweScoringKernel kernel) {
+		int total = 0;
+		for (int c=0;c<count;++c) total += vectors[c].size();
+		int[] indices = new int[total];
+		double[] values = new double[total];
+		int[] starts = new int[count + 1];
+		int k = 0;
+		for (int c=0;c<count;++c) {
+			starts[c] = k;
+			int[] vectorIndices = vectors[c].getIndices();
+			double[] vectorValues = vectors[c].getValues();
+			int max = Integer.MIN_VALUE;
+			for (int i=0;i<vectors[c].size();++i) {
+				int index = vectorIndices[i];
+				if (index <= max) continue; // libsvm never matches a feature that is out of order
+				max = index;
+				if (index < 0 || index >= dimensions) continue;
+				indices[k] = index;
+				values[k++] = vectorValues[i];
+			}
+		}
+		starts[count] = k;
+		double[] sums = new double[count];
+		if (weights != null) kernel.dotProducts(weights, indices, values, starts, count, sums);
+		else {
+			double[] batchWeights = new double[Math.max(1, k)];
+			for (int i=0;i<k;++i) {
+				batchWeights[i] = weight(indices[i]);
+				indices[i] = i;
+			}
+			kernel.dotProducts(batchWeights, indices, values, starts, count, sums);
+		}
+		double[][] probEstimates = new double[count][2];
+		for (int c=0;c<count;++c) probability(sums[c] + bias, probEstimates[c]);
+		return probEstimates;
+	}
+
+	public double predictProbability (svm_node[] nodes, double[] probEstimates) {
+		int[] indices = new int[nodes.length];
+		double[] values = new double[nodes.length];
+		for (int i=0;i<nodes.length;++i) {
+			indices[i] = nodes[i].index;
+			values[i] = nodes[i].value;
+		}
+		return predictProbability(indices, values, nodes.length, probEstimates);
+	}
+
+	/*
+	 * pruned returns a copy of the model with every weight smaller in magnitude than threshold set to 0
+	 */
+	public MweLinearModel pruned (double threshold) {
+		double[] w = new double[dimensions];
+		for (int i=0;i<dimensions;++i) {
+			w[i] = weight(i);
+			if (Math.abs(w[i]) < threshold) w[i] = 0;
+		}
+		return new MweLinearModel(w, bias, probA, probB, labels.clone());
+	}
+
+	/*
+	 * quantized returns a copy of the model with 16 bit (half precision float) or 8 bit weights. 8 bit weights
+	 * are integers from -127 to 127 times one scale, the largest weight magnitude / 127. Returns null for other bits
+	 */
+	public MweLinearModel quantized (int bits) {
+		if (bits == 16) {
+			short[] w = new short[dimensions];
+			for (int i=0;i<dimensions;++i) w[i] = toHalf(weight(i));
+			return new MweLinearModel(w, bias, probA, probB, labels.clone());
+		}
+		if (bits == 8) {
+			double max = 0;
+			for (int i=0;i<dimensions;++i) max = Math.max(max, Math.abs(weight(i)));
+			double step = max / 127;
+			if (step == 0) step = 1;
+			byte[] w = new byte[dimensions];
+			for (int i=0;i<dimensions;++i) w[i] = (byte) Math.max(-127, Math.min(127, Math.round(weight(i) / step)));
+			return new MweLinearModel(w, step, bias, probA, probB, labels.clone());
+		}
+		System.err.println("Weights can only be quantized to 16 or 8 bits");
+		return null;
+	}
+
+	// half precision conversion (rounding half up), as Float.floatToFloat16 is not in every supported JDK
+	static short toHalf (double v) {
+		if (Double.isNaN(v)) return (short) 0x7e00;
+		int sign = v < 0 || (v == 0 && 1 / v < 0) ? 0x8000 : 0;
+		double a = Math.abs(v);
+		if (a >= 65520) return (short) (sign | 0x7c00); // beyond the largest half, 65504
+		int exp = Math.getExponent(a);
+		if (exp < -14) return (short) (sign | (int) Math.round(a / Math.scalb(1.0, -24))); // subnormal, may round up to the smallest normal
+		int mantissa = (int) Math.round((a / Math.scalb(1.0, exp) - 1) * 1024);
+		if (mantissa == 1024) {
+			mantissa = 0;
+			exp++;
+			if (exp > 15) return (short) (sign | 0x7c00);
+		}
+		return (short) (sign | ((exp + 15) << 10) | mantissa);
+	}
+
+	static double fromHalf (short h) {
+		int bits = h & 0xffff;
+		int exp = (bits >>> 10) & 0x1f;
+		int mantissa = bits & 0x3ff;
+		double v;
+		if (exp == 0) v = Math.scalb((double) mantissa, -24);
+		else if (exp == 31) v = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+		else v = Math.scalb(1 + mantissa / 1024.0, exp - 15);
+		return (bits & 0x8000) != 0 ? -v : v;
+	}
+
+	private double sigmoid (double decision) {
+		double fApB = decision * probA + probB;
+		if (fApB >= 0) return Math.exp(-fApB) / (1.0 + Math.exp(-fApB));
+		return 1.0 / (1 + Math.exp(fApB));
+	}
+
+	/*
+	 * coupleProbabilities is libsvm's multiclass_probability for two classes, kept step for step so the
+	 * estimates are those libsvm returns
+	 */
+	private static void coupleProbabilities (double[][] r, double[] p) {
+		int k = 2;
+		int maxIter = Math.max(100, k);
+		double[][] Q = new double[k][k];
+		double[] Qp = new double[k];
+		double pQp;
+		double eps = 0.005 / k;
+		for (int t=0;t<k;++t) {
+			p[t] = 1.0 / k;
+			Q[t][t] = 0;
+			for (int j=0;j<t;++j) {
+				Q[t][t] += r[j][t] * r[j][t];
+				Q[t][j] = Q[j][t];
+			}
+			for (int j=t+1;j<k;++j) {
+				Q[t][t] += r[j][t] * r[j][t];
+				Q[t][j] = -r[j][t] * r[t][j];
+			}
+		}
+		for (int iter=0;iter<maxIter;++iter) {
+			pQp = 0;
+			for (int t=0;t<k;++t) {
+				Qp[t] = 0;
+				for (int j=0;j<k;++j) Qp[t] += Q[t][j] * p[j];
+				pQp += p[t] * Qp[t];
+			}
+			double maxError = 0;
+			for (int t=0;t<k;++t) {
+				double error = Math.abs(Qp[t] - pQp);
+				if (error > maxError) maxError = error;
+			}
+			if (maxError < eps) break;
+			for (int t=0;t<k;++t) {
+				double diff = (-Qp[t] + pQp) / Q[t][t];
+				p[t] += diff;
+				pQp = (pQp + diff * (diff * Q[t][t] + 2 * Qp[t])) / (1 + diff) / (1 + diff);
+				for (int j=0;j<k;++j) {
+					Qp[j] = (Qp[j] + diff * Q[t][j]) / (1 + diff);
+					p[j] /= (1 + diff);
+				}
+			}
+		}
+	}
+}
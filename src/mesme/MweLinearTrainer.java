@@ -0,0 +1,367 @@
+package mesme;
+
+import java.util.Random;
+
+import libsvm.*;
+
+/*
+ * MweLinearTrainer trains a two class linear SVM by dual coordinate descent (Hsieh et al. 2008, as in
+ * liblinear), which for sparse high dimensional linear problems is orders of magnitude faster than libsvm's
+ * SMO and needs no kernel cache. Either loss can be used:
+ *   L1_LOSS  the hinge loss, the same problem libsvm's C-SVC solves
+ *   L2_LOSS  the squared hinge loss (the default, usually converging faster)
+ * As in liblinear a bias feature is added to every vector, so the bias is regularised too. Probabilities are
+ * calibrated as libsvm calibrates them: Platt's sigmoid fitted to decision values from 5 fold cross validation.
+ * The model is returned as a libsvm linear model whose one support vector is the weight vector, so it is saved,
+ * loaded and folded (MweLinearModel.fromModel) like any other. Labels are ordered as libsvm orders them (by
+ * first appearance, but +1 before -1), the first being the positive class. As in scoring, only the features
+ * libsvm would match (those with increasing indices) are learned from.
+ */
+public class MweLinearTrainer implements MweTrainer {
+	public static final int L1_LOSS = 1;
+	public static final int L2_LOSS = 2;
+
+	private int loss = L2_LOSS;
+	private double c = 1;
+	private double eps = 0.1;           // stop when the projected gradient spread is below this
+	private int maxIterations = 1000;
+	private double biasFeature = 1;     // value of the added bias feature, 0 for no bias
+	private int folds = 5;              // cross validation folds for calibration
+	private long seed = 1;
+
+	public MweLinearTrainer () {
+	}
+
+	public MweLinearTrainer (int loss, double c) {
+		setLoss(loss);
+		setC(c);
+	}
+
+	public void setLoss (int loss) {
+		if (loss == L1_LOSS || loss == L2_LOSS) this.loss = loss;
+	}
+
+	public int getLoss () {
+		return loss;
+	}
+
+	public void setC (double c) {
+		if (c > 0) this.c = c;
+	}
+
+	public void setTolerance (double eps) {
+		if (eps > 0) this.eps = eps;
+	}
+
+	public void setMaxIterations (int maxIterations) {
+		if (maxIterations > 0) this.maxIterations = maxIterations;
+	}
+
+	public void setBiasFeature (double biasFeature) {
+		if (biasFeature >= 0) this.biasFeature = biasFeature;
+	}
+
+	public void setCalibrationFolds (int folds) {
+		if (folds > 1) this.folds = folds;
+	}
+
+	public void setSeed (long seed) {
+		this.seed = seed;
+	}
+
+	public svm_model train (MweTrainingStore data) {
+		int l = data.size();
+		int[] rowLabels = data.getLabels();
+		int[] labels = new int[2];
+		int classes = 0;
+		for (int i=0;i<l;++i) {
+			int label = rowLabels[i];
+			if (classes > 0 && label == labels[0]) continue;
+			if (classes > 1 && label == labels[1]) continue;
+			if (classes == 2) {
+				classes = 3;
+				break;
+			}
+			labels[classes++] = label;
+		}
+		if (classes != 2) {
+			System.err.println("Can not train: the linear trainer needs exactly two classes, the data has "+(classes > 2 ? "more" : classes));
+			return null;
+		}
+		if (labels[0] == -1 && labels[1] == 1) { // libsvm puts +1 first for -1/+1 data
+			labels[0] = 1;
+			labels[1] = -1;
+		}
+
+		// keep only the features libsvm would match, still packed, with no values if the data is binary
+		int[] dataIndices = data.getIndices();
+		double[] dataValues = data.getValues();
+		int[] dataStarts = data.getStarts();
+		int[] starts = new int[l + 1];
+		int[] indices = new int[Math.max(1, dataStarts[l])];
+		double[] values = dataValues != null ? new double[indices.length] : null;
+		double[] y = new double[l];
+		int n = 0;
+		int maxIndex = 0;
+		for (int i=0;i<l;++i) {
+			starts[i] = n;
+			int max = Integer.MIN_VALUE;
+			for (int k=dataStarts[i];k<dataStarts[i+1];++k) {
+				int index = dataIndices[k];
+				if (index <= max) continue;
+				max = index;
+				if (index < 0) continue;
+				if (index > maxIndex) maxIndex = index;
+				indices[n] = index;
+				if (values != null) values[n] = dataValues[k];
+				n++;
+			}
+			y[i] = rowLabels[i] == labels[0] ? 1 : -1;
+		}
+		starts[l] = n;
+
+		Random random = new Random(seed);
+		int[] all = new int[l];
+		for (int i=0;i<l;++i) all[i] = i;
+		double[] w = solve(all, l, starts, indices, values, y, maxIndex + 1, random);
+		double[] decisions = crossValidatedDecisions(starts, indices, values, y, maxIndex + 1, random);
+		double[] sigmoid = sigmoidTrain(decisions, y);
+		return toModel(w, maxIndex + 1, labels, sigmoid);
+	}
+
+	/*
+	 * solve runs dual coordinate descent with shrinking over the first n of the given samples, returning the
+	 * weights, with the bias feature's weight last. values null means every value is 1.0
+	 */
+	private double[] solve (int[] samples, int n, int[] starts, int[] indices, double[] values, double[] y, int dimensions, Random random) {
+		double upperBound = c;
+		double diagonal = 0;
+		if (loss == L2_LOSS) {
+			upperBound = Double.POSITIVE_INFINITY;
+			diagonal = 0.5 / c;
+		}
+		double[] w = new double[dimensions + 1];
+		double bias = 0; // weight of the bias feature
+		double[] alpha = new double[n];
+		double[] qd = new double[n];
+		int[] index = new int[n];
+		for (int s=0;s<n;++s) {
+			index[s] = s;
+			int i = samples[s];
+			qd[s] = diagonal + biasFeature * biasFeature;
+			if (values == null) qd[s] += starts[i+1] - starts[i];
+			else for (int k=starts[i];k<starts[i+1];++k) qd[s] += values[k] * values[k];
+		}
+		int activeSize = n;
+		double pgMaxOld = Double.POSITIVE_INFINITY;
+		double pgMinOld = Double.NEGATIVE_INFINITY;
+		for (int iter=0;iter<maxIterations;++iter) {
+			double pgMax = Double.NEGATIVE_INFINITY;
+			double pgMin = Double.POSITIVE_INFINITY;
+			for (int s=0;s<activeSize;++s) {
+				int j = s + random.nextInt(activeSize - s);
+				int t = index[s];
+				index[s] = index[j];
+				index[j] = t;
+			}
+			for (int s=0;s<activeSize;++s) {
+				int a = index[s];
+				int i = samples[a];
+				int begin = starts[i];
+				int end = starts[i+1];
+				double g = bias * biasFeature;
+				if (values == null) for (int k=begin;k<end;++k) g += w[indices[k]];
+				else for (int k=begin;k<end;++k) g += w[indices[k]] * values[k];
+				g = y[i] * g - 1 + alpha[a] * diagonal;
+				double pg = 0;
+				if (alpha[a] == 0) {
+					if (g > pgMaxOld) { // shrink: at its bound and likely to stay there
+						activeSize--;
+						index[s] = index[activeSize];
+						index[activeSize] = a;
+						s--;
+						continue;
+					}
+					if (g < 0) pg = g;
+				} else if (alpha[a] == upperBound) {
+					if (g < pgMinOld) {
+						activeSize--;
+						index[s] = index[activeSize];
+						index[activeSize] = a;
+						s--;
+						continue;
+					}
+					if (g > 0) pg = g;
+				} else pg = g;
+				pgMax = Math.max(pgMax, pg);
+				pgMin = Math.min(pgMin, pg);
+				if (Math.abs(pg) > 1e-12) {
+					double old = alpha[a];
+					alpha[a] = Math.min(Math.max(old - g / qd[a], 0), upperBound);
+					double d = (alpha[a] - old) * y[i];
+					if (values == null) for (int k=begin;k<end;++k) w[indices[k]] += d;
+					else for (int k=begin;k<end;++k) w[indices[k]] += d * values[k];
+					bias += d * biasFeature;
+				}
+			}
+			if (pgMax - pgMin <= eps) {
+				if (activeSize == n) break;
+				activeSize = n; // converged on the active set: check every sample again
+				pgMaxOld = Double.POSITIVE_INFINITY;
+				pgMinOld = Double.NEGATIVE_INFINITY;
+				continue;
+			}
+			pgMaxOld = pgMax <= 0 ? Double.POSITIVE_INFINITY : pgMax;
+			pgMinOld = pgMin >= 0 ? Double.NEGATIVE_INFINITY : pgMin;
+		}
+		w[dimensions] = bias;
+		return w;
+	}
+
+	/*
+	 * crossValidatedDecisions is each sample's decision value from a model trained without its fold, as
+	 * libsvm's svm_binary_svc_probability computes them
+	 */
+	private double[] crossValidatedDecisions (int[] starts, int[] indices, double[] values, double[] y, int dimensions, Random random) {
+		int l = y.length;
+		int k = Math.min(folds, l);
+		int[] perm = new int[l];
+		for (int i=0;i<l;++i) perm[i] = i;
+		for (int i=0;i<l;++i) {
+			int j = i + random.nextInt(l - i);
+			int t = perm[i];
+			perm[i] = perm[j];
+			perm[j] = t;
+		}
+		double[] decisions = new double[l];
+		int[] train = new int[l];
+		for (int f=0;f<k;++f) {
+			int begin = f * l / k;
+			int end = (f + 1) * l / k;
+			int n = 0;
+			for (int i=0;i<begin;++i) train[n++] = perm[i];
+			for (int i=end;i<l;++i) train[n++] = perm[i];
+			double[] w = solve(train, n, starts, indices, values, y, dimensions, random);
+			for (int i=begin;i<end;++i) {
+				int s = perm[i];
+				double sum = w[dimensions] * biasFeature;
+				for (int j=starts[s];j<starts[s+1];++j) sum += w[indices[j]] * (values != null ? values[j] : 1.0);
+				decisions[s] = sum;
+			}
+		}
+		return decisions;
+	}
+
+	/*
+	 * sigmoidTrain fits Platt's sigmoid 1 / (1 + exp(A f + B)) to the decision values, returning {A, B}. It is
+	 * libsvm's sigmoid_train (Lin, Lin and Weng's Newton method with backtracking)
+	 */
+	static double[] sigmoidTrain (double[] dec, double[] y) {
+		int l = dec.length;
+		double prior1 = 0, prior0 = 0;
+		for (int i=0;i<l;++i) {
+			if (y[i] > 0) prior1 += 1;
+			else prior0 += 1;
+		}
+		int maxIter = 100;
+		double minStep = 1e-10;
+		double sigma = 1e-12;
+		double eps = 1e-5;
+		double hiTarget = (prior1 + 1.0) / (prior1 + 2.0);
+		double loTarget = 1 / (prior0 + 2.0);
+		double[] t = new double[l];
+		double a = 0.0, b = Math.log((prior0 + 1.0) / (prior1 + 1.0));
+		double fval = 0.0;
+		for (int i=0;i<l;++i) {
+			t[i] = y[i] > 0 ? hiTarget : loTarget;
+			double fApB = dec[i] * a + b;
+			if (fApB >= 0) fval += t[i] * fApB + Math.log(1 + Math.exp(-fApB));
+			else fval += (t[i] - 1) * fApB + Math.log(1 + Math.exp(fApB));
+		}
+		for (int iter=0;iter<maxIter;++iter) {
+			double h11 = sigma, h22 = sigma, h21 = 0, g1 = 0, g2 = 0;
+			for (int i=0;i<l;++i) {
+				double fApB = dec[i] * a + b;
+				double p, q;
+				if (fApB >= 0) {
+					p = Math.exp(-fApB) / (1.0 + Math.exp(-fApB));
+					q = 1.0 / (1.0 + Math.exp(-fApB));
+				} else {
+					p = 1.0 / (1.0 + Math.exp(fApB));
+					q = Math.exp(fApB) / (1.0 + Math.exp(fApB));
+				}
+				double d2 = p * q;
+				h11 += dec[i] * dec[i] * d2;
+				h22 += d2;
+				h21 += dec[i] * d2;
+				double d1 = t[i] - p;
+				g1 += dec[i] * d1;
+				g2 += d1;
+			}
+			if (Math.abs(g1) < eps && Math.abs(g2) < eps) break;
+			double det = h11 * h22 - h21 * h21;
+			double dA = -(h22 * g1 - h21 * g2) / det;
+			double dB = -(-h21 * g1 + h11 * g2) / det;
+			double gd = g1 * dA + g2 * dB;
+			double step = 1;
+			while (step >= minStep) {
+				double newA = a + step * dA;
+				double newB = b + step * dB;
+				double newf = 0.0;
+				for (int i=0;i<l;++i) {
+					double fApB = dec[i] * newA + newB;
+					if (fApB >= 0) newf += t[i] * fApB + Math.log(1 + Math.exp(-fApB));
+					else newf += (t[i] - 1) * fApB + Math.log(1 + Math.exp(fApB));
+				}
+				if (newf < fval + 0.0001 * step * gd) {
+					a = newA;
+					b = newB;
+					fval = newf;
+					break;
+				}
+				step = step / 2.0;
+			}
+			if (step < minStep) {
+				System.err.println("Line search fails in probability calibration");
+				break;
+			}
+		}
+		return new double[] {a, b};
+	}
+
+	/*
+	 * toModel writes the weights as a libsvm linear C-SVC model with a single support vector of coefficient 1,
+	 * so the decision value is w.x - rho, the bias feature's weight becoming -rho
+	 */
+	private svm_model toModel (double[] w, int biasIndex, int[] labels, double[] sigmoid) {
+		int n = 0;
+		for (int i=0;i<biasIndex;++i) if (w[i] != 0) n++;
+		svm_node[] sv = new svm_node[n];
+		n = 0;
+		for (int i=0;i<biasIndex;++i) {
+			if (w[i] == 0) continue;
+			sv[n] = new svm_node();
+			sv[n].index = i;
+			sv[n++].value = w[i];
+		}
+		svm_parameter param = new svm_parameter();
+		param.svm_type = svm_parameter.C_SVC;
+		param.kernel_type = svm_parameter.LINEAR;
+		param.C = c;
+		param.eps = eps;
+		param.probability = 1;
+		svm_model model = new svm_model();
+		model.param = param;
+		model.nr_class = 2;
+		model.l = 1;
+		model.SV = new svm_node[][] {sv};
+		model.sv_coef = new double[][] {{1}};
+		model.sv_indices = new int[] {1};
+		model.rho = new double[] {-w[biasIndex] * biasFeature};
+		model.probA = new double[] {sigmoid[0]};
+		model.probB = new double[] {sigmoid[1]};
+		model.label = labels;
+		model.nSV = new int[] {1, 0};
+		return model;
+	}
+}
@@ -0,0 +1,11 @@
+package mesme;
+
+/*
+ * MweListener receives the MWEs accepted by a streaming MweChunkerSession, as soon as each can be classified.
+ * The span's type says whether it is an NPC, VPC or LVC, and its token indices count from the start of the 
+ * document; offset, features and tags are those the chunker would have stored for the MWE (features are null
+ * for a single word NPC, whose vector string is "none").
+ */
+public interface MweListener {
+	public void mweFound (MweSpan span, String phrase, int offset, MweFeatureVector features, String[] tags);
+}
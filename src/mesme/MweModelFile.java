@@ -0,0 +1,328 @@
+package mesme;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import libsvm.*;
+
+/*
+ * MweModelFile is a compact binary form of an SVM model, read by mapping the file so nothing is parsed. A header
+ * holds the model parameters, labels, rho and probA/probB.
+ * A two class linear model is then stored as its folded weight vector (see MweLinearModel), which may be
+ * pruned and quantized to 16 or 8 bits (see MwePruner). It loads as that alone, scored straight from the
+ * mapped file with no copy on the heap, so processes on the same box share its pages. Any other model is
+ * stored as packed support vector index/value arrays with their coefficients, and is copied into an svm_model
+ * for libsvm, so each process holds its own copy. A model loaded from a stream (load) is read onto the heap.
+ * MweActiveLearner.loadModel tells the formats apart by the magic number, so modelConfig.txt can name either.
+ * Usage: MweModelFile textModelFilename binaryModelFilename
+ */
+public class MweModelFile {
+	private static final int MAGIC = 0x4D57454D; // "MWEM"
+	private static final int FORMAT_VERSION = 1;
+	private static final int LINEAR_WEIGHTS = 1;
+	private static final int SUPPORT_VECTORS = 2;
+	private static final int LINEAR_WEIGHTS_16 = 3; // half precision weights
+	private static final int LINEAR_WEIGHTS_8 = 4;  // 8 bit weights and their scale
+
+	private svm_model model = null;
+	private MweLinearModel linear = null;
+
+	private MweModelFile () {
+	}
+
+	/*
+	 * getModel is the libsvm model, or null for a model stored as linear weights
+	 */
+	public svm_model getModel () {
+		return model;
+	}
+
+	/*
+	 * getLinearModel is the folded linear model, or null for a model stored as support vectors
+	 */
+	public MweLinearModel getLinearModel () {
+		return linear;
+	}
+
+	/*
+	 * isBinaryModel checks whether a file starts with the binary model magic number
+	 */
+	public static boolean isBinaryModel (String modelFilename) {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(modelFilename))) {
+			return in.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/*
+	 * convert loads a libsvm text model and writes it in the binary format
+	 */
+	public static boolean convert (String textModelFilename, String binaryModelFilename) {
+		svm_model model;
+		try {
+			model = svm.svm_load_model(textModelFilename);
+		} catch (IOException e) {
+			System.err.println("Can not load "+textModelFilename);
+			return false;
+		}
+		return write(model, binaryModelFilename);
+	}
+
+	/*
+	 * write writes a linear model as its weights, in the precision it holds them
+	 */
+	public static boolean write (MweLinearModel linear, String binaryModelFilename) {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryModelFilename)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			int bits = linear.getQuantization();
+			out.writeInt(bits == 8 ? LINEAR_WEIGHTS_8 : bits == 16 ? LINEAR_WEIGHTS_16 : LINEAR_WEIGHTS);
+			out.writeInt(svm_parameter.C_SVC);
+			out.writeInt(svm_parameter.LINEAR);
+			out.writeInt(0);
+			out.writeDouble(0);
+			out.writeDouble(0);
+			out.writeInt(2);
+			writeInts(out, linear.getLabels());
+			writeDoubles(out, new double[] {-linear.getBias()});
+			writeDoubles(out, new double[] {linear.getProbA()});
+			writeDoubles(out, new double[] {linear.getProbB()});
+			int dimensions = linear.getDimensions();
+			if (bits == 8) {
+				out.writeDouble(linear.getScale());
+				out.writeInt(dimensions);
+				for (int i=0;i<dimensions;++i) out.writeByte(linear.weight8(i));
+			} else if (bits == 16) {
+				out.writeInt(dimensions);
+				for (int i=0;i<dimensions;++i) out.writeShort(linear.weight16(i));
+			} else {
+				out.writeInt(dimensions);
+				for (int i=0;i<dimensions;++i) out.writeDouble(linear.weight(i));
+			}
+			return true;
+		} catch (IOException e) {
+			System.err.println("Can not write "+binaryModelFilename);
+			return false;
+		}
+	}
+
+	/*
+	 * write writes a two class linear model as its folded weights, any other model as support vectors
+	 */
+	public static boolean write (svm_model model, String binaryModelFilename) {
+		MweLinearModel linear = MweLinearModel.fromModel(model);
+		if (linear != null) return write(linear, binaryModelFilename);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryModelFilename)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(SUPPORT_VECTORS);
+			out.writeInt(model.param.svm_type);
+			out.writeInt(model.param.kernel_type);
+			out.writeInt(model.param.degree);
+			out.writeDouble(model.param.gamma);
+			out.writeDouble(model.param.coef0);
+			out.writeInt(model.nr_class);
+			writeInts(out, model.label);
+			writeDoubles(out, model.rho);
+			writeDoubles(out, model.probA);
+			writeDoubles(out, model.probB);
+			out.writeInt(model.l);
+			writeInts(out, model.nSV);
+			for (int c=0;c<model.nr_class-1;++c) {
+				for (int i=0;i<model.l;++i) out.writeDouble(model.sv_coef[c][i]);
+			}
+			int total = 0;
+			out.writeInt(total);
+			for (int i=0;i<model.l;++i) {
+				total += model.SV[i].length;
+				out.writeInt(total); // starts of the next vector
+			}
+			for (int i=0;i<model.l;++i) {
+				for (svm_node node : model.SV[i]) out.writeInt(node.index);
+			}
+			for (int i=0;i<model.l;++i) {
+				for (svm_node node : model.SV[i]) out.writeDouble(node.value);
+			}
+			return true;
+		} catch (IOException e) {
+			System.err.println("Can not write "+binaryModelFilename);
+			return false;
+		}
+	}
+
+	// arrays are written with their length first, -1 for a missing array
+	private static void writeInts (DataOutputStream out, int[] a) throws IOException {
+		if (a == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(a.length);
+		for (int v : a) out.writeInt(v);
+	}
+
+	private static void writeDoubles (DataOutputStream out, double[] a) throws IOException {
+		if (a == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(a.length);
+		for (double v : a) out.writeDouble(v);
+	}
+
+	private static int[] readInts (ByteBuffer in) {
+		int n = in.getInt();
+		if (n < 0) return null;
+		int[] a = new int[n];
+		in.asIntBuffer().get(a);
+		in.position(in.position() + 4 * n);
+		return a;
+	}
+
+	private static double[] readDoubles (ByteBuffer in) {
+		int n = in.getInt();
+		if (n < 0) return null;
+		double[] a = new double[n];
+		in.asDoubleBuffer().get(a);
+		in.position(in.position() + 8 * n);
+		return a;
+	}
+
+	/*
+	 * weightView returns the length prefixed weights at the buffer's position, of width bytes each, as a view of
+	 * their bytes (not a copy), and moves past them
+	 */
+	private static ByteBuffer weightView (ByteBuffer in, int width) {
+		int n = in.getInt();
+		if (n < 0 || (long) n * width > in.remaining()) throw new IllegalArgumentException("bad weight count "+n);
+		ByteBuffer view = in.slice();
+		view.limit(n * width);
+		in.position(in.position() + n * width);
+		return view;
+	}
+
+	/*
+	 * read maps a binary model file, or returns null if it can not be read or is not in the current format
+	 */
+	public static MweModelFile read (String binaryModelFilename) {
+		try (FileChannel channel = FileChannel.open(Paths.get(binaryModelFilename), StandardOpenOption.READ)) {
+			return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), binaryModelFilename);
+		} catch (IOException e) {
+			System.err.println("Can not read binary model "+binaryModelFilename);
+			return null;
+		}
+	}
+
+	/*
+	 * load reads a model in either format from a stream, e.g. a resource inside a jar, or returns null if it can
+	 * not be read. A text model is parsed by libsvm
+	 */
+	public static MweModelFile load (InputStream stream, String modelName) {
+		try (InputStream in = stream) {
+			byte[] bytes = in.readAllBytes();
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			if (bytes.length >= 4 && buffer.getInt(0) == MAGIC) return parse(buffer, modelName);
+			MweModelFile file = new MweModelFile();
+			file.model = svm.svm_load_model(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8)));
+			return file;
+		} catch (Exception e) {
+			System.err.println("Can not read model "+modelName);
+			return null;
+		}
+	}
+
+	private static MweModelFile parse (ByteBuffer in, String modelName) {
+		try {
+			if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+				System.err.println(modelName+" is not a binary model in the current format");
+				return null;
+			}
+			int kind = in.getInt();
+			svm_parameter param = new svm_parameter();
+			param.svm_type = in.getInt();
+			param.kernel_type = in.getInt();
+			param.degree = in.getInt();
+			param.gamma = in.getDouble();
+			param.coef0 = in.getDouble();
+			int nrClass = in.getInt();
+			int[] labels = readInts(in);
+			double[] rho = readDoubles(in);
+			double[] probA = readDoubles(in);
+			double[] probB = readDoubles(in);
+			MweModelFile file = new MweModelFile();
+			// linear weights are views over the buffer, so a mapped file is scored in place
+			if (kind == LINEAR_WEIGHTS) {
+				file.linear = new MweLinearModel(weightView(in, 8).asDoubleBuffer(), -rho[0], probA[0], probB[0], labels);
+				return file;
+			}
+			if (kind == LINEAR_WEIGHTS_16) {
+				file.linear = new MweLinearModel(weightView(in, 2).asShortBuffer(), -rho[0], probA[0], probB[0], labels);
+				return file;
+			}
+			if (kind == LINEAR_WEIGHTS_8) {
+				double scale = in.getDouble();
+				file.linear = new MweLinearModel(weightView(in, 1), scale, -rho[0], probA[0], probB[0], labels);
+				return file;
+			}
+			svm_model model = new svm_model();
+			model.param = param;
+			model.nr_class = nrClass;
+			model.label = labels;
+			model.rho = rho;
+			model.probA = probA;
+			model.probB = probB;
+			model.l = in.getInt();
+			model.nSV = readInts(in);
+			model.sv_coef = new double[nrClass-1][model.l];
+			for (int c=0;c<nrClass-1;++c) {
+				in.asDoubleBuffer().get(model.sv_coef[c]);
+				in.position(in.position() + 8 * model.l);
+			}
+			int[] starts = new int[model.l + 1];
+			in.asIntBuffer().get(starts);
+			in.position(in.position() + 4 * starts.length);
+			int total = starts[model.l];
+			int[] indices = new int[total];
+			double[] values = new double[total];
+			in.asIntBuffer().get(indices);
+			in.position(in.position() + 4 * total);
+			in.asDoubleBuffer().get(values);
+			model.SV = new svm_node[model.l][];
+			for (int i=0;i<model.l;++i) {
+				model.SV[i] = new svm_node[starts[i+1] - starts[i]];
+				for (int k=starts[i];k<starts[i+1];++k) {
+					svm_node node = new svm_node();
+					node.index = indices[k];
+					node.value = values[k];
+					model.SV[i][k - starts[i]] = node;
+				}
+			}
+			file.model = model;
+			return file;
+		} catch (RuntimeException e) {
+			System.err.println("Can not read binary model "+modelName);
+			return null;
+		}
+	}
+
+	public static void main (String args[]) {
+		if (args.length != 2) {
+			System.err.println("Usage: MweModelFile textModelFilename binaryModelFilename");
+			System.exit(-1);
+		}
+		if (!convert(args[0], args[1])) System.exit(-1);
+	}
+}
@@ -0,0 +1,10 @@
+package mesme;
+
+/*
+ * MweModelSwapListener is told each time MweActiveLearner swaps in a new model for scoring: when a model is
+ * loaded, published by online learning or retrained. trainingMillis is how long a retrain took, -1 otherwise.
+ * It is called on the thread that made the swap, e.g. the background retraining thread.
+ */
+public interface MweModelSwapListener {
+	public void modelSwapped (String modelName, long version, long trainingMillis);
+}
@@ -0,0 +1,223 @@
+package mesme;
+
+/*
+ * Generated by MweEngineGenerator from MweEngineDefinition.englishNominalCompounds - do not edit.
+ * A 6 state, 12 tag column engine with each transition compiled into a nested switch.
+ */
+public final class MweNominalCompoundsEngine extends MweEngineCursor {
+	public static final int TABLE_HASH = 108831070;
+
+	public MweNominalCompoundsEngine () {
+		this (MweAutomaton.englishNominalCompounds());
+	}
+
+	public MweNominalCompoundsEngine (MweAutomaton engine) {
+		super (engine);
+		if (!matches(engine)) System.err.println("MweNominalCompoundsEngine was generated from a different engine definition");
+	}
+
+	/*
+	 * matches is true if the automaton has the tables this class was generated from
+	 */
+	public static boolean matches (MweAutomaton engine) {
+		return engine.tableHash() == TABLE_HASH;
+	}
+
+	public MweEngineCursor newCursor () {
+		return new MweNominalCompoundsEngine(automaton);
+	}
+
+	public void stepEngine (int tagID, String token, int indexPoint, int tagNo) {
+		int next;
+		switch (currentState) {
+		case 0 : // STOP
+			switch (tagID) {
+			case 1 : // JJ
+				clearAdd(token, indexPoint, tagNo);
+				next = 1; // ADJ
+				break;
+			case 2 : // JJR
+			case 3 : // CD
+			case 6 : // VB
+			case 7 : // VBG
+			case 8 : // UH
+				clearChunk();
+				next = 2; // INIT
+				break;
+			case 4 : // NN
+				clearAdd(token, indexPoint, tagNo);
+				next = 3; // NOUN
+				break;
+			case 5 : // DT
+				clearChunk();
+				next = 4; // DTPRP
+				break;
+			case 9 : // CC
+				clearChunk();
+				next = 1; // ADJ
+				break;
+			default :
+				clearChunk();
+				next = 0; // STOP
+				break;
+			}
+			break;
+		case 1 : // ADJ
+			switch (tagID) {
+			case 1 : // JJ
+				clearAdd(token, indexPoint, tagNo);
+				next = 1; // ADJ
+				break;
+			case 3 : // CD
+			case 6 : // VB
+			case 7 : // VBG
+			case 10 : // TO
+				clearChunk();
+				next = 2; // INIT
+				break;
+			case 4 : // NN
+				addToken(token, indexPoint, tagNo);
+				next = 3; // NOUN
+				break;
+			case 5 : // DT
+				clearChunk();
+				next = 4; // DTPRP
+				break;
+			default :
+				clearChunk();
+				next = 0; // STOP
+				break;
+			}
+			break;
+		case 2 : // INIT
+			switch (tagID) {
+			case 1 : // JJ
+				clearAdd(token, indexPoint, tagNo);
+				next = 1; // ADJ
+				break;
+			case 2 : // JJR
+				clearChunk();
+				next = 1; // ADJ
+				break;
+			case 3 : // CD
+			case 6 : // VB
+			case 7 : // VBG
+			case 10 : // TO
+				clearChunk();
+				next = 2; // INIT
+				break;
+			case 4 : // NN
+				clearAdd(token, indexPoint, tagNo);
+				next = 3; // NOUN
+				break;
+			case 5 : // DT
+				clearChunk();
+				next = 4; // DTPRP
+				break;
+			default :
+				clearChunk();
+				next = 0; // STOP
+				break;
+			}
+			break;
+		case 3 : // NOUN
+			switch (tagID) {
+			case 1 : // JJ
+				setMweAddEmbed(token, tagNo);
+				next = 1; // ADJ
+				break;
+			case 3 : // CD
+			case 6 : // VB
+			case 10 : // TO
+			case 11 : // .
+				setMweClear();
+				next = 2; // INIT
+				break;
+			case 4 : // NN
+				addToken(token, indexPoint, tagNo);
+				next = 3; // NOUN
+				break;
+			case 5 : // DT
+				setMweClear();
+				next = 4; // DTPRP
+				break;
+			case 7 : // VBG
+				setMweAddEmbed(token, tagNo);
+				next = 5; // VERB
+				break;
+			case 9 : // CC
+				setMweClear();
+				next = 1; // ADJ
+				break;
+			default :
+				setMweClear();
+				next = 0; // STOP
+				break;
+			}
+			break;
+		case 4 : // DTPRP
+			switch (tagID) {
+			case 1 : // JJ
+				clearAdd(token, indexPoint, tagNo);
+				next = 1; // ADJ
+				break;
+			case 3 : // CD
+			case 10 : // TO
+				clearChunk();
+				next = 2; // INIT
+				break;
+			case 4 : // NN
+				clearAdd(token, indexPoint, tagNo);
+				next = 3; // NOUN
+				break;
+			case 5 : // DT
+				clearChunk();
+				next = 4; // DTPRP
+				break;
+			case 6 : // VB
+			case 7 : // VBG
+				clearAdd(token, indexPoint, tagNo);
+				next = 5; // VERB
+				break;
+			default :
+				clearChunk();
+				next = 0; // STOP
+				break;
+			}
+			break;
+		case 5 : // VERB
+			switch (tagID) {
+			case 1 : // JJ
+				addToken(token, indexPoint, tagNo);
+				next = 1; // ADJ
+				break;
+			case 3 : // CD
+			case 6 : // VB
+			case 7 : // VBG
+			case 10 : // TO
+				clearChunk();
+				next = 2; // INIT
+				break;
+			case 4 : // NN
+				addToken(token, indexPoint, tagNo);
+				next = 3; // NOUN
+				break;
+			case 5 : // DT
+				clearChunk();
+				next = 4; // DTPRP
+				break;
+			default :
+				clearChunk();
+				next = 0; // STOP
+				break;
+			}
+			break;
+		default :
+			next = currentState;
+		}
+
+		// update parameters and move engine to next state
+		lastTag = tagID;
+		currentState = next;
+	}
+}
@@ -0,0 +1,164 @@
+package mesme;
+
+/*
+ * MweOnlineLearner updates a linear MWE model one labelled sample at a time, for learning from a live stream
+ * without retraining from scratch. It starts from a model's folded weights (usually the shipped libsvm model,
+ * see MweLinearModel.fromModel) and keeps its probA/probB calibration and labels. An update costs one pass over
+ * the sample's features. Three update rules are offered:
+ *   PASSIVE_AGGRESSIVE  PA-I: the smallest step that gives the sample a margin of 1, capped by aggressiveness
+ *   SGD_HINGE           stochastic gradient descent on the hinge loss with L2 regularisation
+ *   SGD_LOG             stochastic gradient descent on the log loss with L2 regularisation
+ * SGD uses the learning rate eta0 / (1 + eta0 * lambda * t), and applies the L2 shrinkage to a scale factor
+ * rather than to every weight, so it costs nothing per update. getModel returns a snapshot to score with.
+ * As in scoring, only the features libsvm would match (those with increasing indices) are learned from.
+ */
+public class MweOnlineLearner {
+	public static final int PASSIVE_AGGRESSIVE = 0;
+	public static final int SGD_HINGE = 1;
+	public static final int SGD_LOG = 2;
+
+	private int algorithm;
+	private double[] weights; // true weights are weights * weightScale
+	private double weightScale = 1;
+	private double bias;
+	private double probA;
+	private double probB;
+	private int[] labels;
+	private double aggressiveness = 1.0; // PA-I C
+	private double lambda = 1e-4;        // SGD L2 regularisation
+	private double eta0 = 0.1;           // SGD initial learning rate
+	private boolean learnBias = true;
+	private long updates = 0;
+
+	public MweOnlineLearner (MweLinearModel initial, int algorithm) {
+		this.algorithm = algorithm;
+		weights = new double[Math.max(1, initial.getDimensions())];
+		for (int i=0;i<initial.getDimensions();++i) weights[i] = initial.weight(i);
+		bias = initial.getBias();
+		probA = initial.getProbA();
+		probB = initial.getProbB();
+		labels = initial.getLabels().clone();
+	}
+
+	public synchronized void setAggressiveness (double c) {
+		if (c > 0) aggressiveness = c;
+	}
+
+	public synchronized void setRegularisation (double lambda) {
+		if (lambda >= 0) this.lambda = lambda;
+	}
+
+	public synchronized void setLearningRate (double eta0) {
+		if (eta0 > 0) this.eta0 = eta0;
+	}
+
+	public synchronized void setLearnBias (boolean learnBias) {
+		this.learnBias = learnBias;
+	}
+
+	public int getAlgorithm () {
+		return algorithm;
+	}
+
+	public synchronized long getUpdates () {
+		return updates;
+	}
+
+	// the decision value is positive for the model's first label
+	private int sign (int label) {
+		return label == labels[0] ? 1 : -1;
+	}
+
+	private double margin (int[] indices, double[] values, int count) {
+		double sum = 0;
+		int max = Integer.MIN_VALUE;
+		for (int i=0;i<count;++i) {
+			int index = indices[i];
+			if (index <= max) continue;
+			max = index;
+			if (index >= 0 && index < weights.length) sum += weights[index] * values[i];
+		}
+		return sum * weightScale + bias;
+	}
+
+	private double squaredNorm (int[] indices, double[] values, int count) {
+		double sum = 0;
+		int max = Integer.MIN_VALUE;
+		for (int i=0;i<count;++i) {
+			if (indices[i] <= max) continue;
+			max = indices[i];
+			if (indices[i] >= 0) sum += values[i] * values[i];
+		}
+		return sum;
+	}
+
+	// adds step * x to the true weights
+	private void addVector (int[] indices, double[] values, int count, double step) {
+		int max = Integer.MIN_VALUE;
+		for (int i=0;i<count;++i) {
+			int index = indices[i];
+			if (index <= max) continue;
+			max = index;
+			if (index < 0) continue;
+			if (index >= weights.length) {
+				double[] w = new double[Math.max(index + 1, weights.length * 2)];
+				System.arraycopy(weights, 0, w, 0, weights.length);
+				weights = w;
+			}
+			weights[index] += step * values[i] / weightScale;
+		}
+	}
+
+	/*
+	 * update learns from one sample with its class label (one of the model's labels)
+	 */
+	public void update (MweFeatureVector vector, int label) {
+		update(vector.getIndices(), vector.getValues(), vector.size(), label);
+	}
+
+	public synchronized void update (int[] indices, double[] values, int count, int label) {
+		int y = sign(label);
+		double m = margin(indices, values, count);
+		updates++;
+		if (algorithm == PASSIVE_AGGRESSIVE) {
+			double loss = 1 - y * m;
+			if (loss <= 0) return;
+			double norm = squaredNorm(indices, values, count) + (learnBias ? 1 : 0);
+			if (norm == 0) return;
+			double tau = Math.min(aggressiveness, loss / norm);
+			addVector(indices, values, count, tau * y);
+			if (learnBias) bias += tau * y;
+			return;
+		}
+		double eta = eta0 / (1 + eta0 * lambda * updates);
+		weightScale *= 1 - eta * lambda;
+		if (weightScale < 1e-9) rescale();
+		double gradient;
+		if (algorithm == SGD_HINGE) gradient = y * m < 1 ? y : 0;
+		else gradient = y / (1 + Math.exp(y * m)); // - d/dm log(1 + exp(-y m))
+		if (gradient == 0) return;
+		addVector(indices, values, count, eta * gradient);
+		if (learnBias) bias += eta * gradient;
+	}
+
+	/*
+	 * update learns from a mini-batch of count samples, in order
+	 */
+	public void update (MweFeatureVector[] vectors, int[] sampleLabels, int count) {
+		for (int i=0;i<count;++i) update(vectors[i], sampleLabels[i]);
+	}
+
+	private void rescale () {
+		for (int i=0;i<weights.length;++i) weights[i] *= weightScale;
+		weightScale = 1;
+	}
+
+	/*
+	 * getModel returns the current weights as a model to score with; later updates do not change it
+	 */
+	public synchronized MweLinearModel getModel () {
+		double[] w = new double[weights.length];
+		for (int i=0;i<w.length;++i) w[i] = weights[i] * weightScale;
+		return new MweLinearModel(w, bias, probA, probB, labels.clone());
+	}
+}
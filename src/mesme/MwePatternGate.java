@@ -0,0 +1,174 @@
+package mesme;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * MwePatternGate is a first stage in front of the SVM models. It keeps, per model and tag window pattern (the
+ * POS tags of a candidate and its two tokens of context either side), how often the model accepted candidates
+ * with that pattern. Once a pattern has been scored minObservations times and its acceptance rate is at least
+ * acceptRate (or at most rejectRate), later candidates with the pattern are accepted (or rejected) without
+ * being scored. Every auditInterval'th gated candidate is still scored, so a pattern whose decisions
+ * drift is opened up again. Ambiguous patterns always go to the SVM.
+ * At most maxPatterns patterns (default 10000) are kept; beyond that the least recently seen is forgotten, so
+ * memory stays flat on an unbounded stream of new chunk lengths and tag combinations.
+ * The statistics belong to the models that made the decisions, so modelName should change when a model is
+ * replaced or retrained; MweChunker passes the versioned name (MweActiveLearner.getVersionedName).
+ */
+public class MwePatternGate {
+	public static final int SCORE = 0;
+	public static final int ACCEPT = 1;
+	public static final int REJECT = 2;
+
+	private int minObservations = 50;
+	private double acceptRate = 0.99;
+	private double rejectRate = 0.01;
+	private int auditInterval = 100;
+	private int maxPatterns = 10000;
+
+	private class PatternStats {
+		long scored = 0;
+		long accepted = 0;
+		long gated = 0;
+	}
+	private LinkedHashMap<String,PatternStats> patterns = new LinkedHashMap<String,PatternStats>(16, 0.75f, true); // access order
+	private long evictions = 0;
+
+	private long gatedAccepts = 0;
+	private long gatedRejects = 0;
+	private long scoredCandidates = 0;
+	private long audits = 0;
+
+	public MwePatternGate () {
+	}
+
+	public MwePatternGate (int minObservations, double acceptRate, double rejectRate, int auditInterval) {
+		setThresholds (minObservations, acceptRate, rejectRate, auditInterval);
+	}
+
+	/*
+	 * setThresholds sets the number of scored candidates needed before a pattern is gated, the acceptance rates at
+	 * which it is accepted or rejected outright, and how often a gated candidate is scored anyway (0 for never)
+	 */
+	public synchronized void setThresholds (int minObservations, double acceptRate, double rejectRate, int auditInterval) {
+		this.minObservations = Math.max(1, minObservations);
+		this.acceptRate = acceptRate;
+		this.rejectRate = rejectRate;
+		this.auditInterval = Math.max(0, auditInterval);
+	}
+
+	/*
+	 * setMaxPatterns bounds the number of patterns kept, dropping the least recently seen ones if there are more
+	 */
+	public synchronized void setMaxPatterns (int maxPatterns) {
+		this.maxPatterns = Math.max(1, maxPatterns);
+		trim();
+	}
+
+	public synchronized int getMaxPatterns () {
+		return maxPatterns;
+	}
+
+	private void trim () {
+		Iterator<String> eldest = patterns.keySet().iterator();
+		while (patterns.size() > maxPatterns) {
+			eldest.next();
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	private static String key (String modelName, String[] tagWindow) {
+		StringBuffer sb = new StringBuffer(modelName);
+		for (String tag : tagWindow) sb.append(' ').append(tag);
+		return sb.toString();
+	}
+
+	/*
+	 * decide returns ACCEPT or REJECT for a candidate whose pattern is settled, otherwise SCORE
+	 */
+	public synchronized int decide (String modelName, String[] tagWindow) {
+		PatternStats stats = patterns.get(key(modelName, tagWindow));
+		if (stats == null || stats.scored < minObservations) return SCORE;
+		double rate = (double) stats.accepted / stats.scored;
+		int decision = SCORE;
+		if (rate >= acceptRate) decision = ACCEPT;
+		else if (rate <= rejectRate) decision = REJECT;
+		if (decision == SCORE) return SCORE;
+		stats.gated++;
+		if (auditInterval > 0 && stats.gated % auditInterval == 0) {
+			audits++;
+			return SCORE;
+		}
+		if (decision == ACCEPT) gatedAccepts++; else gatedRejects++;
+		return decision;
+	}
+
+	/*
+	 * record adds the model's decision on a scored candidate to its pattern's statistics
+	 */
+	public synchronized void record (String modelName, String[] tagWindow, boolean accepted) {
+		String key = key(modelName, tagWindow);
+		PatternStats stats = patterns.get(key);
+		if (stats == null) {
+			stats = new PatternStats();
+			patterns.put(key, stats);
+			trim();
+		}
+		stats.scored++;
+		if (accepted) stats.accepted++;
+		scoredCandidates++;
+	}
+
+	public synchronized void clear () {
+		patterns.clear();
+	}
+
+	public synchronized int getPatternCount () {
+		return patterns.size();
+	}
+
+	public synchronized long getGatedAccepts () {
+		return gatedAccepts;
+	}
+
+	public synchronized long getGatedRejects () {
+		return gatedRejects;
+	}
+
+	public synchronized long getScoredCandidates () {
+		return scoredCandidates;
+	}
+
+	public synchronized long getAudits () {
+		return audits;
+	}
+
+	/*
+	 * getEvictions is the number of patterns forgotten to stay within maxPatterns
+	 */
+	public synchronized long getEvictions () {
+		return evictions;
+	}
+
+	/*
+	 * toTable lists the settled patterns with their statistics, as tab separated text
+	 */
+	public synchronized String toTable () {
+		StringBuffer sb = new StringBuffer();
+		sb.append("PATTERN\tSCORED\tACCEPTED\tGATED\n");
+		for (Map.Entry<String,PatternStats> entry : patterns.entrySet()) { // get would reorder the map
+			String key = entry.getKey();
+			PatternStats stats = entry.getValue();
+			if (stats.gated == 0) continue;
+			sb.append(key).append('\t').append(stats.scored).append('\t').append(stats.accepted).append('\t').append(stats.gated).append('\n');
+		}
+		return sb.toString();
+	}
+
+	public synchronized String toString () {
+		return "MwePatternGate patterns="+patterns.size()+" evictions="+evictions+" scored="+scoredCandidates+" gatedAccepts="+gatedAccepts
+				+" gatedRejects="+gatedRejects+" audits="+audits;
+	}
+}
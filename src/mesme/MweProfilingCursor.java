@@ -0,0 +1,162 @@
+package mesme;
+
+/*
+ * MweProfilingCursor is an instrumented MweEngineCursor for tuning engine definitions against real traffic.
+ * It counts visits per state and per (state, tag) transition, how often a state falls back to its "**" entry
+ * (a tag the state has no row for) and how often a SUBSTATE lookback fires, how many times each action runs and
+ * how many non-empty chunks are cleared without being extracted. Profiling is a separate class so ordinary
+ * cursors carry no counting cost.
+ * Profile an expanded automaton (MweAutomaton.expand) so the counts refer to the definition's own rows: in a
+ * compiled automaton merged states share one name, unreachable states are gone, a tag column counts every tag
+ * merged into it, and no fallbacks can be told apart from listed rows, so none are counted.
+ * Counts accumulate until reset with clearCounts; profiles from several threads can be combined with merge.
+ */
+public class MweProfilingCursor extends MweEngineCursor {
+	private static final int ACTION_CODES = 100;
+	private static final String SHADES = " .:-=+*#%@";
+
+	private final int tagCount;
+	private long[] stateVisits;
+	private long[] transitions;
+	private long[] defaultFallbacks;
+	private long[] substateLookbacks;
+	private long[] clearedChunks;
+	private long[] actionCounts = new long[ACTION_CODES];
+
+	public MweProfilingCursor (MweAutomaton engine) {
+		super (engine);
+		tagCount = engine.getTagCount();
+		if (!engine.isExpanded()) System.err.println("Profiling a compiled automaton: counts are per merged state and tag column");
+		clearCounts();
+	}
+
+	/*
+	 * newCursor returns a profiling cursor with counts of its own; merge them into this one to combine the profiles
+	 */
+	public MweEngineCursor newCursor () {
+		return new MweProfilingCursor(automaton);
+	}
+
+	public void clearCounts () {
+		int states = automaton.getStateCount();
+		stateVisits = new long[states];
+		transitions = new long[states * tagCount];
+		defaultFallbacks = new long[states];
+		substateLookbacks = new long[states];
+		clearedChunks = new long[states];
+		actionCounts = new long[ACTION_CODES];
+	}
+
+	public void stepEngine (int tagID, String token, int indexPoint, int tagNo) {
+		int state = currentState;
+		int cell = state * tagCount + tagID;
+		stateVisits[state]++;
+		transitions[cell]++;
+		if (automaton.isExpanded() && !automaton.isListed(state, tagID)) defaultFallbacks[state]++;
+		int action = automaton.action(state, tagID);
+		if (action == MweStateEngine.SUBSTATE) {
+			substateLookbacks[state]++;
+			action = automaton.action(automaton.nextState(state, tagID), priorTag);
+		}
+		if (action >= 0 && action < ACTION_CODES) actionCounts[action]++;
+		if ((action == MweStateEngine.CLEAR_CHUNK || action == MweStateEngine.CLEAR_ADD) && chunkTokenCount > 0) clearedChunks[state]++;
+		super.stepEngine(tagID, token, indexPoint, tagNo);
+	}
+
+	/*
+	 * merge adds the counts of another profile of the same automaton into this one
+	 */
+	public void merge (MweProfilingCursor other) {
+		if (other.automaton != automaton) {
+			System.err.println("Can not merge profiles of different engines");
+			return;
+		}
+		add(stateVisits, other.stateVisits);
+		add(transitions, other.transitions);
+		add(defaultFallbacks, other.defaultFallbacks);
+		add(substateLookbacks, other.substateLookbacks);
+		add(clearedChunks, other.clearedChunks);
+		add(actionCounts, other.actionCounts);
+	}
+
+	private static void add (long[] to, long[] from) {
+		for (int i=0;i<to.length;++i) to[i] += from[i];
+	}
+
+	public long getStateVisits (int state) {
+		return stateVisits[state];
+	}
+
+	public long getTransitions (int state, int tagID) {
+		return transitions[state * tagCount + tagID];
+	}
+
+	public long getDefaultFallbacks (int state) {
+		return defaultFallbacks[state];
+	}
+
+	public long getSubstateLookbacks (int state) {
+		return substateLookbacks[state];
+	}
+
+	public long getClearedChunks (int state) {
+		return clearedChunks[state];
+	}
+
+	public long getActionCount (int actionCode) {
+		if (actionCode < 0 || actionCode >= ACTION_CODES) return 0;
+		return actionCounts[actionCode];
+	}
+
+	/*
+	 * toTable lists the counts per state, per action and every transition taken, as tab separated text
+	 */
+	public String toTable () {
+		StringBuffer sb = new StringBuffer();
+		sb.append("STATE\tVISITS\tDEFAULT\tSUBSTATE\tCLEARED\n");
+		for (int s=0;s<automaton.getStateCount();++s) {
+			sb.append(automaton.stateName(s)).append('\t').append(stateVisits[s]).append('\t').append(defaultFallbacks[s]).append('\t')
+				.append(substateLookbacks[s]).append('\t').append(clearedChunks[s]).append('\n');
+		}
+		sb.append("\nACTION\tCOUNT\n");
+		for (int a=0;a<ACTION_CODES;++a) {
+			if (actionCounts[a] > 0) sb.append(MweEngineCompiler.getActionName(a)).append('\t').append(actionCounts[a]).append('\n');
+		}
+		sb.append("\nSTATE\tTAG\tACTION\tNEXT\tCOUNT\n");
+		for (int s=0;s<automaton.getStateCount();++s) {
+			for (int t=0;t<tagCount;++t) {
+				long count = transitions[s * tagCount + t];
+				if (count == 0) continue;
+				sb.append(automaton.stateName(s)).append('\t').append(automaton.tagName(t)).append('\t')
+					.append(MweEngineCompiler.getActionName(automaton.action(s, t))).append('\t')
+					.append(automaton.stateName(automaton.nextState(s, t))).append('\t').append(count).append('\n');
+			}
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * toHeatMap draws the state by tag transition counts as a character heat map, on a log scale from
+	 * ' ' (never taken) to '@' (the most used transition)
+	 */
+	public String toHeatMap () {
+		long max = 0;
+		for (int i=0;i<transitions.length;++i) if (transitions[i] > max) max = transitions[i];
+		double scale = Math.log(max + 1);
+		StringBuffer sb = new StringBuffer();
+		sb.append(String.format("%-8s", ""));
+		for (int t=0;t<tagCount;++t) sb.append(' ').append(String.format("%-4s", automaton.tagName(t)));
+		sb.append('\n');
+		for (int s=0;s<automaton.getStateCount();++s) {
+			sb.append(String.format("%-8s", automaton.stateName(s)));
+			for (int t=0;t<tagCount;++t) {
+				long count = transitions[s * tagCount + t];
+				int shade = 0;
+				if (count > 0) shade = 1 + (int) ((SHADES.length() - 2) * Math.log(count + 1) / scale);
+				sb.append("  ").append(SHADES.charAt(Math.min(shade, SHADES.length() - 1))).append("  ");
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,125 @@
+package mesme;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/*
+ * MwePruner shrinks a linear MWE model for deployment: weights smaller in magnitude than a threshold are set
+ * to 0 and the rest are quantized to 16 or 8 bits (see MweLinearModel.pruned and quantized). It reports, for a
+ * range of settings and for the chosen one, the accuracy against a held out vector file (SVM light format,
+ * "label index:value ...") next to the original model's, how many predictions change, the largest change in
+ * probability, and the size of the weights. The chosen model is written in the MweModelFile binary format.
+ * Usage: MwePruner modelFilename heldOutVectorFilename outputModelFilename [threshold (0.01)] [bits 64|16|8 (8)]
+ */
+public class MwePruner {
+	private static final double[] THRESHOLDS = {0, 0.001, 0.01, 0.05, 0.1, 0.2};
+	private static final int[] BITS = {64, 16, 8};
+
+	private ArrayList<MweFeatureVector> vectors = new ArrayList<MweFeatureVector>();
+	private ArrayList<Integer> labels = new ArrayList<Integer>();
+
+	/*
+	 * readVectors loads a held out file of labelled vectors, returning false if it can not be read
+	 */
+	public boolean readVectors (String vectorFilename) {
+		MweTrainingStore store = MweTrainingStore.read(vectorFilename);
+		if (store == null) return false;
+		for (int r=0;r<store.size();++r) {
+			MweFeatureVector vector = new MweFeatureVector();
+			labels.add(store.getRow(r, vector));
+			vectors.add(vector);
+		}
+		return true;
+	}
+
+	public int getVectorCount () {
+		return vectors.size();
+	}
+
+	/*
+	 * accuracy is the fraction of the held out vectors the model labels correctly
+	 */
+	public double accuracy (MweLinearModel model) {
+		if (vectors.isEmpty()) return 0;
+		double[] probs = new double[2];
+		int correct = 0;
+		for (int i=0;i<vectors.size();++i) {
+			MweFeatureVector v = vectors.get(i);
+			if ((int) model.predictProbability(v.getIndices(), v.getValues(), v.size(), probs) == labels.get(i)) correct++;
+		}
+		return (double) correct / vectors.size();
+	}
+
+	/*
+	 * compare returns the number of held out vectors labelled differently by the two models and the largest
+	 * difference in the first class probability
+	 */
+	public double[] compare (MweLinearModel original, MweLinearModel changed) {
+		double[] p = new double[2];
+		double[] q = new double[2];
+		int flips = 0;
+		double maxDiff = 0;
+		for (MweFeatureVector v : vectors) {
+			double a = original.predictProbability(v.getIndices(), v.getValues(), v.size(), p);
+			double b = changed.predictProbability(v.getIndices(), v.getValues(), v.size(), q);
+			if (a != b) flips++;
+			maxDiff = Math.max(maxDiff, Math.abs(p[0] - q[0]));
+		}
+		return new double[] {flips, maxDiff};
+	}
+
+	public static MweLinearModel shrink (MweLinearModel model, double threshold, int bits) {
+		MweLinearModel pruned = model.pruned(threshold);
+		if (bits == 64) return pruned;
+		return pruned.quantized(bits);
+	}
+
+	private String report (String name, MweLinearModel original, MweLinearModel model) {
+		double[] diff = compare(original, model);
+		return name+"\t"+model.getNonZeroWeights()+"/"+model.getDimensions()+"\t"+model.getWeightBytes()+"\t"
+				+String.format("%.4f", accuracy(model))+"\t"+(int) diff[0]+"\t"+String.format("%.2e", diff[1]);
+	}
+
+	public static void main (String args[]) {
+		if (args.length < 3) {
+			System.err.println("Usage: MwePruner modelFilename heldOutVectorFilename outputModelFilename [threshold] [bits 64|16|8]");
+			System.exit(-1);
+		}
+		double threshold = 0.01;
+		int bits = 8;
+		if (args.length > 3) threshold = Double.parseDouble(args[3]);
+		if (args.length > 4) bits = Integer.parseInt(args[4]);
+		if (bits != 64 && bits != 16 && bits != 8) {
+			System.err.println("bits must be 64, 16 or 8");
+			System.exit(-1);
+		}
+		MweModelFile file;
+		try {
+			file = MweModelFile.load(new FileInputStream(args[0]), args[0]);
+		} catch (IOException e) {
+			file = null;
+		}
+		if (file == null) {
+			System.err.println("Can not load "+args[0]);
+			System.exit(-1);
+		}
+		MweLinearModel original = file.getLinearModel();
+		if (original == null) original = MweLinearModel.fromModel(file.getModel());
+		if (original == null) {
+			System.err.println(args[0]+" is not a two class linear model with probabilities");
+			System.exit(-1);
+		}
+		MwePruner pruner = new MwePruner();
+		if (!pruner.readVectors(args[1])) System.exit(-1);
+		System.out.println(pruner.getVectorCount()+" held out vectors");
+		System.out.println("MODEL\tNONZERO\tBYTES\tACCURACY\tCHANGED\tMAX PROB DIFF");
+		System.out.println(pruner.report("original", original, original));
+		for (double t : THRESHOLDS) {
+			for (int b : BITS) System.out.println(pruner.report("t="+t+" "+b+"bit", original, shrink(original, t, b)));
+		}
+		MweLinearModel chosen = shrink(original, threshold, bits);
+		System.out.println("chosen:\n"+pruner.report("t="+threshold+" "+bits+"bit", original, chosen));
+		if (!MweModelFile.write(chosen, args[2])) System.exit(-1);
+	}
+}
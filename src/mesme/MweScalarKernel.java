@@ -0,0 +1,15 @@
+package mesme;
+
+/*
+ * MweScalarKernel is the plain loop scoring kernel, adding each vector's products in feature order exactly as
+ * libsvm does. It is the default, and the fallback when MweVectorKernel can not be loaded.
+ */
+public class MweScalarKernel implements MweScoringKernel {
+	public void dotProducts (double[] weights, int[] indices, double[] values, int[] starts, int count, double[] sums) {
+		for (int c=0;c<count;++c) {
+			double sum = 0;
+			for (int k=starts[c];k<starts[c+1];++k) sum += weights[indices[k]] * values[k];
+			sums[c] = sum;
+		}
+	}
+}
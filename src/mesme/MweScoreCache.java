@@ -0,0 +1,156 @@
+package mesme;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * MweScoreCache keeps the class probabilities of recently scored candidates, keyed by model name and the content
+ * of the feature vector, so a candidate seen again in the same context (retweets, bots, trending phrases) is not
+ * scored again. It is bounded: each of its segments drops its least recently used entry when full. Segments are
+ * locked separately so several chunkers can share a cache. MweActiveLearner keys scores by model name and
+ * version ("npcModel#3"), so a replaced or retrained model is never answered from its predecessor's scores, and
+ * invalidates the replaced version's entries to free their space.
+ */
+public class MweScoreCache {
+	private static final int SEGMENTS = 16;
+
+	private Segment[] segments = new Segment[SEGMENTS];
+	private int capacity;
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+	private AtomicLong evictions = new AtomicLong();
+
+	private class Key {
+		String modelName;
+		MweFeatureVector vector;
+		int hash;
+
+		Key (String modelName, MweFeatureVector vector) {
+			this.modelName = modelName;
+			this.vector = vector;
+			hash = modelName.hashCode() * 31 + vector.hashCode();
+		}
+
+		public int hashCode () {
+			return hash;
+		}
+
+		public boolean equals (Object o) {
+			if (!(o instanceof Key)) return false;
+			Key other = (Key) o;
+			return hash == other.hash && modelName.equals(other.modelName) && vector.equals(other.vector);
+		}
+	}
+
+	private class Segment extends LinkedHashMap<Key,double[]> {
+		private static final long serialVersionUID = 1L;
+
+		private int limit;
+
+		Segment (int limit) {
+			super (16, 0.75f, true); // access order, eldest is least recently used
+			this.limit = limit;
+		}
+
+		protected boolean removeEldestEntry (Map.Entry<Key,double[]> eldest) {
+			if (size() <= limit) return false;
+			evictions.incrementAndGet();
+			return true;
+		}
+	}
+
+	public MweScoreCache (int capacity) {
+		this.capacity = capacity;
+		int limit = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+		for (int i=0;i<SEGMENTS;++i) segments[i] = new Segment(limit);
+	}
+
+	private Segment segment (Key key) {
+		int h = key.hash ^ (key.hash >>> 16);
+		return segments[(h & 0x7fffffff) % SEGMENTS];
+	}
+
+	/*
+	 * get returns a copy of the probabilities stored for the vector under the model, or null if there are none
+	 */
+	public double[] get (String modelName, MweFeatureVector vector) {
+		Key key = new Key(modelName, vector);
+		Segment segment = segment(key);
+		double[] probs;
+		synchronized (segment) {
+			probs = segment.get(key);
+		}
+		if (probs == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return probs.clone();
+	}
+
+	/*
+	 * put stores the probabilities of a vector; both are copied, so the vector buffer can be reused
+	 */
+	public void put (String modelName, MweFeatureVector vector, double[] probs) {
+		Key key = new Key(modelName, vector.copy());
+		Segment segment = segment(key);
+		synchronized (segment) {
+			segment.put(key, probs.clone());
+		}
+	}
+
+	/*
+	 * invalidate drops every entry of exactly this model name (such as "npcModel#3"), when it has been replaced
+	 * or retrained; entries of other versions, which may belong to other learners sharing the cache, are kept
+	 */
+	public void invalidate (String modelName) {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				Iterator<Key> it = segment.keySet().iterator();
+				while (it.hasNext()) {
+					if (it.next().modelName.equals(modelName)) it.remove();
+				}
+			}
+		}
+	}
+
+	public void clear () {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	public int size () {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public int getCapacity () {
+		return capacity;
+	}
+
+	public long getHits () {
+		return hits.get();
+	}
+
+	public long getMisses () {
+		return misses.get();
+	}
+
+	public long getEvictions () {
+		return evictions.get();
+	}
+
+	public String toString () {
+		return "MweScoreCache size="+size()+"/"+capacity+" hits="+getHits()+" misses="+getMisses()+" evictions="+getEvictions();
+	}
+}
@@ -0,0 +1,84 @@
+package mesme;
+
+import java.io.IOException;
+
+import libsvm.*;
+
+/*
+ * MweScoringBenchmark times candidate scoring against the shipped linear models: libsvm, the folded model one
+ * vector at a time, and batch scoring with the scalar and (if available) SIMD kernels. The candidates are the
+ * models' own support vectors, i.e. real training vectors. It reports the time per candidate and the largest
+ * difference from libsvm's probabilities. Run with --add-modules jdk.incubator.vector (and MweVectorKernel
+ * built) to include the vector kernel.
+ * Usage: MweScoringBenchmark [rounds] [model files...]
+ */
+public class MweScoringBenchmark {
+	private static final String[] DEFAULT_MODELS = {"./resources/npc-model-twit.svm", "./resources/vpc-model-twit.svm", "./resources/lvc-model-twit.svm"};
+
+	public static void main (String args[]) {
+		int rounds = 200;
+		String[] modelFiles = DEFAULT_MODELS;
+		if (args.length > 0) rounds = Integer.parseInt(args[0]);
+		if (args.length > 1) {
+			modelFiles = new String[args.length - 1];
+			System.arraycopy(args, 1, modelFiles, 0, modelFiles.length);
+		}
+		MweScoringKernel vectorKernel = MweActiveLearner.loadVectorKernel();
+		System.out.println("MODEL\tCANDIDATES\tMETHOD\tNS/CANDIDATE\tMAX DIFF");
+		for (String modelFile : modelFiles) {
+			svm_model model;
+			try {
+				model = svm.svm_load_model(modelFile);
+			} catch (IOException e) {
+				System.err.println("Can not load "+modelFile);
+				continue;
+			}
+			MweLinearModel linear = MweLinearModel.fromModel(model);
+			if (linear == null) {
+				System.err.println(modelFile+" is not a two class linear model with probabilities");
+				continue;
+			}
+			int count = model.l;
+			MweFeatureVector[] vectors = new MweFeatureVector[count];
+			for (int i=0;i<count;++i) {
+				vectors[i] = new MweFeatureVector(model.SV[i].length);
+				for (svm_node node : model.SV[i]) vectors[i].add(node.index, node.value);
+			}
+			double[][] reference = new double[count][2];
+			double[][][] probs = {new double[count][2]};
+			MweScoringKernel scalar = new MweScalarKernel();
+			MweScoringKernel vector = vectorKernel;
+			// libsvm scores against every support vector, so it gets fewer rounds
+			report(modelFile, count, "libsvm", time(Math.max(1, rounds / 50), () -> {
+				for (int i=0;i<count;++i) svm.svm_predict_probability(model, model.SV[i], reference[i]);
+			}), reference, reference);
+			report(modelFile, count, "linear", time(rounds, () -> {
+				for (int i=0;i<count;++i) linear.predictProbability(vectors[i].getIndices(), vectors[i].getValues(), vectors[i].size(), probs[0][i]);
+			}), reference, probs[0]);
+			report(modelFile, count, "scalar batch", time(rounds, () -> probs[0] = linear.predictProbabilities(vectors, count, scalar)), reference, probs[0]);
+			if (vector != null) {
+				report(modelFile, count, "vector batch", time(rounds, () -> probs[0] = linear.predictProbabilities(vectors, count, vector)), reference, probs[0]);
+			}
+		}
+	}
+
+	/*
+	 * time runs a scoring pass once to warm up, then returns the best time of 5 runs of rounds passes, per pass
+	 */
+	private static double time (int rounds, Runnable pass) {
+		pass.run();
+		long best = Long.MAX_VALUE;
+		for (int run=0;run<5;++run) {
+			long start = System.nanoTime();
+			for (int r=0;r<rounds;++r) pass.run();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return (double) best / rounds;
+	}
+
+	private static void report (String modelFile, int count, String method, double nanosPerPass, double[][] reference, double[][] probs) {
+		double maxDiff = 0;
+		for (int i=0;i<count;++i) maxDiff = Math.max(maxDiff, Math.abs(reference[i][0] - probs[i][0]));
+		System.out.println(modelFile+"\t"+count+"\t"+method+"\t"+String.format("%.1f", nanosPerPass / count)+"\t"+maxDiff);
+	}
+}
@@ -0,0 +1,10 @@
+package mesme;
+
+/*
+ * MweScoringKernel computes the dot products of a batch of sparse vectors with one weight array. The batch is
+ * flattened: vector c holds the features starts[c] to starts[c+1]-1 of indices/values, and every index is a
+ * valid position in weights. MweLinearModel prepares the batch; MweActiveLearner chooses the kernel.
+ */
+public interface MweScoringKernel {
+	public void dotProducts (double[] weights, int[] indices, double[] values, int[] starts, int count, double[] sums);
+}
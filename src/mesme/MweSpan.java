@@ -0,0 +1,71 @@
+package mesme;
+
+/*
+ * MweSpan records an extraction committed by a state engine while chunking, as a span over the input tag/token
+ * arrays: where it starts, how many tokens it holds and whether the engine flagged it as typed or as holding
+ * an embed. The phrase string is only built when asked for.
+ */
+public class MweSpan {
+	public static final int UNTYPED = 0;
+	public static final int NPC = 1;
+	public static final int VPC = 2;
+	public static final int LVC = 3;
+
+	public int type = UNTYPED;      // MWE type, set by the chunker when the span is accepted
+	public int tokenNo = 0;         // token at which the engine committed the extraction
+	public int startIndex = 0;      // index of the first token in the tag/token arrays
+	public int tokenCount = 0;      // number of tokens in the extraction
+	public int[] tokenIndices = null; // token indices, only held if the engine skipped tokens inside the chunk
+	public int startOffset = 0;     // document offset of the first token
+	public boolean typed = false;   // flagged as a 'sub-type' (LVC for the verbal engine)
+	public boolean embed = false;   // holds a potential embedded MWE
+	public int embedTokenOffset = 0; // token offset of the embed within the extraction
+
+	/*
+	 * tokenIndex returns the index in the input arrays of the i'th token of the span
+	 */
+	public int tokenIndex (int i) {
+		if (tokenIndices != null) return tokenIndices[i];
+		return startIndex + i;
+	}
+
+	/*
+	 * phrase builds the space separated phrase for the span from the input tokens
+	 */
+	public String phrase (String[] tokens) {
+		StringBuffer sb = new StringBuffer();
+		for (int i=0;i<tokenCount;++i) {
+			if (i > 0) sb.append(' ');
+			sb.append(tokens[tokenIndex(i)]);
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * charOffset returns the character offset within the phrase of the token at tokenOffset
+	 */
+	public int charOffset (String[] tokens, int tokenOffset) {
+		int chars = 0;
+		for (int i=0;i<tokenOffset;++i) chars += tokens[tokenIndex(i)].length() + 1;
+		return chars;
+	}
+
+	/*
+	 * subSpan returns the span of count tokens starting at tokenOffset within this span
+	 */
+	public MweSpan subSpan (int tokenOffset, int count) {
+		MweSpan span = new MweSpan();
+		span.type = type;
+		span.tokenNo = tokenNo;
+		span.startIndex = startIndex + tokenOffset;
+		if (count > 0) span.startIndex = tokenIndex(tokenOffset);
+		span.tokenCount = count;
+		if (tokenIndices != null) {
+			span.tokenIndices = new int[count];
+			System.arraycopy(tokenIndices, tokenOffset, span.tokenIndices, 0, count);
+		}
+		span.startOffset = startOffset;
+		span.typed = typed;
+		return span;
+	}
+}
@@ -0,0 +1,11 @@
+package mesme;
+
+import java.util.LinkedList;
+
+/*
+ * MweSpanHandler receives the extractions of one engine registered with MweChunker, in document order,
+ * once the chunker's single pass over the tags and tokens is complete.
+ */
+public interface MweSpanHandler {
+	public void handleSpans (LinkedList<MweSpan> spans, String[] tags, String[] tokens);
+}
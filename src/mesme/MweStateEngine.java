@@ -1,5 +1,6 @@
 package mesme;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 
 import mesme.MweEngineDefinition;
@@ -7,8 +8,10 @@ import mesme.MweEngineDefinition;
 /*
  * MweStateEngine is a configurable state machine for the MESME MWE extractor
  * It has a default setting for English with the POS tag set output by TwitIE
+ * The definition is compiled into an MweAutomaton and run by the MweEngineCursor this engine extends. Where the
+ * definition is fixed, share a compiled MweAutomaton between threads and give each thread its own cursor instead.
  */
-public class MweStateEngine {
+public class MweStateEngine extends MweEngineCursor {
   public static final int ADD_TOKEN = 1;									// add current token to chunk
   public static final int CLEAR_CHUNK = 2;								// clear current chunk
   public static final int CLEAR_ADD = 12;								  // clear current chunk & add current token
@@ -45,28 +48,9 @@ public class MweStateEngine {
   public String[] getStateNames () {
   	return (String[]) engineStates.keySet().toArray();
   }
-
-  private StringBuffer chunking = new StringBuffer();
-  public String getCurrentChunk () {
-  	return chunking.toString();
-  }
-  
-  public int chunkTokenCount = 0; // holds number of tokens in current chunk
-  public int extractTokenCount = 0; // holds number of tokens in current extract
-  
-  private boolean mweState = false;
-  public boolean isMWE () {
-  	return mweState;
-  }
   
-  private int getActionCode (String actionName) {
-  	int a = -1;
-    try {
-  	  a = this.getClass().getField(actionName).getInt(MweStateEngine.class);
-    } catch (Exception e) {
-    	System.err.println("Could not find valid action code for "+actionName);
-    }
-    return a;
+  static int getActionCode (String actionName) {
+  	return MweEngineCompiler.getActionCode(actionName);
   }
   
   public void addState (String stateName) {
@@ -92,11 +76,43 @@ public class MweStateEngine {
   		nextState = engineStates.get(nextStateName);
   	}  	
   	pState.nextStateMap.put(observedTag, nextState);
+  	specStates.add(stateName);
+  	specTags.add(observedTag);
+  	specActions.add(actionCode);
+  	specNext.add(nextStateName);
+  	if (automaton != null) {
+  		resumeState = getCurrentState();
+  		automaton = null;
+  	}
+  }
+
+  /*
+   * The definition rows are kept in order so the engine can be compiled into an MweAutomaton, which is what 
+   * stepEngine actually runs. Any change to the definition drops the compiled form until the next step.
+   */
+  private ArrayList<String> specStates = new ArrayList<String>();
+  private ArrayList<String> specTags = new ArrayList<String>();
+  private ArrayList<Integer> specActions = new ArrayList<Integer>();
+  private ArrayList<String> specNext = new ArrayList<String>();
+  private String resumeState = null; // state to carry over when the definition is recompiled
+
+  public MweAutomaton getAutomaton () {
+  	if (automaton == null) {
+  		int rows = specStates.size();
+  		int[] actionCodes = new int[rows];
+  		for (int i=0;i<rows;++i) actionCodes[i] = specActions.get(i);
+  		automaton = new MweAutomaton(specStates.toArray(new String[rows]), specTags.toArray(new String[rows]), 
+  				actionCodes, specNext.toArray(new String[rows]));
+  		currentState = -1;
+  		if (resumeState != null) currentState = automaton.stateID(resumeState);
+  		resumeState = null;
+  	}
+  	return automaton;
   }
 
   private void setState (String stateName) {
   	if (engineStates.containsKey(stateName)) {
-  	  currentState = engineStates.get(stateName);
+  	  currentState = getAutomaton().stateID(stateName);
   	}
   }
   
@@ -111,6 +127,15 @@ public class MweStateEngine {
   	return initialise (MweEngineDefinition.englishNominalCompounds);
   }
   
+  /*
+   * As above, with the table read from a definition file (see MweEngineLoader)
+   */
+  public boolean initialiseFromFile (String definitionFilename) {
+  	String[] stateSpec = MweEngineLoader.readDefinition(definitionFilename);
+  	if (stateSpec == null) return false;
+  	return initialise (stateSpec);
+  }
+
   public boolean initialise (String[] stateSpec) {
   	int noOfStates = stateSpec.length;
   	if (noOfStates % 4 !=0) return false;
@@ -124,217 +149,20 @@ public class MweStateEngine {
   	return true;
   }
   
-  private String extract = null;
-  public String getExtractMWE () {
-  	String mwe = extract;
-  	extract = null;
-  	isTyped = false;
-  	return mwe;
-  }
-  private int chunkStartPt = 0;
-  public int chunkStartPt() {
-  	return chunkStartPt;
-  }
-  private int chunkStartTagNo = 0;
-  public int chunkStartIndex() {
-  	return chunkStartTagNo;
-  }
-  private String embedChunk = "";
-  public String getEmbed () {
-  	String mwe = new String (embedChunk+" "+extract);
-  	return mwe;
-  }
-  private int embedPoint = 0;
-  public int embedOffset() {
-  	return embedPoint;
-  }
-  private int embedTokenOffset = 0;
-  public int embedTokenOffset() {
-  	return embedTokenOffset;
-  }
-  private boolean potentialEmbed = false;
-  public boolean hasEmbed() {
-  	if (!potentialEmbed) return false;
-  	if (extract==null) potentialEmbed = false;
-  	//if (extract.length()<1) potentialEmbed = false;
-  	return potentialEmbed;
-  }
-  private boolean isTyped = false;
-  public boolean currentMweIsTyped() {
-  	return isTyped;
-  }
-  private State currentState = null;
-  public String getCurrentState () {
-  	if (currentState == null) return null;
-  	return currentState.name;
-  }
-  private String lastTag;
-  private String priorTag;
-  
   /*
-   * stepEngine carries out the programmed action for the state machine given the observed tag and steps the engine to the next state 
+   * The engine compiles its definition on first use, so make sure the automaton is current before stepping
    */
+  public String getCurrentState () {
+  	if (automaton == null) return resumeState;
+  	return super.getCurrentState();
+  }
+
   public void stepEngine (String tag, String token, int indexPoint, int tagNo) {
-    // Get and carry out action for tag in current state
-  	String currentTag = tag;
-  	if (!currentState.actionOption.containsKey(tag)) tag = "**";    
-  	int action = currentState.actionOption.get(tag);
-	  if (action==SUBSTATE) { // Need to set up secondary test
-	  	String pt = priorTag;
-	  	if (!currentState.nextStateMap.get(tag).actionOption.containsKey(priorTag)) pt = "**";
-	    action = currentState.nextStateMap.get(tag).actionOption.get(pt);
-	  }
-	  switch (action) {
-  	case (0) : break; // do nothing
-  	case (ADD_TOKEN) : 
-  		if (chunkTokenCount==0) {
-  			chunkStartPt = indexPoint;
-  			chunkStartTagNo = tagNo;
-  		}
-  		if (chunking.length() > 0) chunking.append(' '); else priorTag = lastTag;
-  		chunking.append(token);
-  		chunkTokenCount++;
-  		break;
-  	case (CLEAR_CHUNK) :
-  		chunking.setLength(0);
-	  	chunkTokenCount = 0;
-	  	potentialEmbed = false;
-  	  break;
-  	case (CLEAR_ADD) :
-  		chunking.setLength(0);
-    	potentialEmbed = false;
-    	priorTag = lastTag;
-  		chunking.append(token);
-  		chunkTokenCount=1;
-  		chunkStartPt = indexPoint;
-			chunkStartTagNo = tagNo;
-  	  break;
-  	case (SET_MWE) :
-  		extract = chunking.toString();
-  		extractTokenCount = chunkTokenCount;
-  	  break;
-  	case (SET_MWE_CLEAR) :
-  		extract = chunking.toString();
-		  extractTokenCount = chunkTokenCount;
-		  chunking.setLength(0);
-  		chunkTokenCount = 0;
-	    break;  		
-  	case(SET_MWE_ADD) :
-  		extract = chunking.toString();
-  		extractTokenCount = chunkTokenCount;
-  		chunking.append(' ');
-  		chunking.append(token);
-  		chunkTokenCount++;
-	    break;
-  	case (SET_MWE_ADDEMBED) :
-   		extract = chunking.toString();
- 	  	extractTokenCount = chunkTokenCount;
-  		chunking.append(' ');
-      embedPoint = chunking.length();
-      embedTokenOffset = extractTokenCount;
-	  	isTyped = false;
-  		chunking.append(token);
-  		chunkTokenCount++;
-  		potentialEmbed = true;
-  		break;
-  	case(SET_MWE_SUBTYPE) :
-  		extract = chunking.toString();
-  		extractTokenCount = chunkTokenCount;
-  	  isTyped = true;
-	    break;  		
-  	case(SET_MWE_SUBTYPE_CLEAR) :
-  		extract = chunking.toString();
-  		extractTokenCount = chunkTokenCount;
-  	  isTyped = true;
-		  chunking.setLength(0);
-  		chunkTokenCount = 0;
-	  	potentialEmbed = false;
-	    break;  		
-  	case (ADD_SET_MWE) : 
-  		if (chunkTokenCount==0) {
-  			chunkStartPt = indexPoint;
-  			chunkStartTagNo = tagNo;
-  		}
-  		if (chunking.length() > 0) chunking.append(' ');
-		  chunking.append(token);
-  		chunkTokenCount++;
-  		extract = chunking.toString();
-  		extractTokenCount = chunkTokenCount;
-	  	isTyped = false;
-		  break;
-  	case (ADD_SET_MWE_CLEAR ) :
-  		if (chunkTokenCount==0) {
-  			chunkStartPt = indexPoint;
-  			chunkStartTagNo = tagNo;
-  		}
-  		if (chunking.length() > 0) chunking.append(' ');
-		  chunking.append(token);
-  		chunkTokenCount++;
-  		extract = chunking.toString();
-  		extractTokenCount = chunkTokenCount;
-	  	isTyped = false;
-  		chunking.setLength(0);
-  		chunkTokenCount = 0;
-	  	potentialEmbed = false;
-		  break;
-  	case (ADD_SET_MWE_SUBTYPE) : 
-  		if (chunkTokenCount==0) {
-  			chunkStartPt = indexPoint;
-  			chunkStartTagNo = tagNo;
-  		}
-  		if (chunking.length() > 0) chunking.append(' ');
-		  chunking.append(token);
-  		chunkTokenCount++;
-		  isTyped = true;
-      extract = chunking.toString();
-  		extractTokenCount = chunkTokenCount;
-		  break;
-  	case (ADD_SET_MWE_SUBTYPE_CLEAR) : 
-  		if (chunkTokenCount==0) {
-  			chunkStartPt = indexPoint;
-  			chunkStartTagNo = tagNo;
-  		}
-  		if (chunking.length() > 0) chunking.append(' ');
-		  chunking.append(token);
-  		chunkTokenCount++;
-		  isTyped = true;
-  		extract = chunking.toString();
-  		extractTokenCount = chunkTokenCount;
-  		chunking.setLength(0);
-  		chunkTokenCount = 0;
-	  	potentialEmbed = false;
-		  break;
-  	case (ADD_SET_MWE_SUBTYPE_CLEAR_ADD) : 
-  		if (chunkTokenCount==0) {
-  			chunkStartPt = indexPoint;
-  			chunkStartTagNo = tagNo;
-  		}
-  		if (chunking.length() > 0) chunking.append(' ');
-		  chunking.append(token);
-  		chunkTokenCount++;
-		  isTyped = true;
-  		extract = chunking.toString();
-  		extractTokenCount = chunkTokenCount;
-  		chunking.setLength(0);
-    	potentialEmbed = false;
-    	priorTag = lastTag;
-  		chunking.append(token);
-  		chunkTokenCount=1;
-  		chunkStartPt = indexPoint;
-			chunkStartTagNo = tagNo;
-  	  break;
-  	case (CONTINUE) :
-  		if (chunking.length() > 0) {
-  			chunking.append(' ');
-  			chunking.append(token);
-  			chunkTokenCount++;
-  		}
-  	case (SKIP) : // do nothing
-  	  break;
-  	}
+  	stepEngine (getAutomaton().tagID(tag), token, indexPoint, tagNo);
+  }
 
-  	// update parameters and move engine to next state
-  	lastTag = currentTag;
-  	currentState = currentState.nextStateMap.get(tag);
+  public void stepEngine (int tagID, String token, int indexPoint, int tagNo) {
+  	getAutomaton();
+  	super.stepEngine(tagID, token, indexPoint, tagNo);
   }
 }
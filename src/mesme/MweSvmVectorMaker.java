@@ -75,92 +75,58 @@ public class MweSvmVectorMaker {
   	return tokenIndex.get(token);
   }
   
-	private int[] tagsVector (String tag) {
-		int[] tagsVec = new int[posDimsPerToken];
-		for (int i=0;i<posDimsPerToken;++i) {
-			tagsVec[i] = 0;
-		}
+	// dimension of a POS tag within a token's features
+	private int tagFeatureNo (String tag) {
 		int fn;
 		if (posTagDims.containsKey(tag)) fn = posTagDims.get(tag); else {System.err.println("NO TAG: "+tag);fn=posTagDims.get("UNK");}
-		tagsVec[fn] = 1;
-		return tagsVec;
+		return fn;
 	}
 
-	private int[] orthoVector (String tag) {
-		int[] tagsVec = new int[orthoDimsPerToken];
-		for (int i=0;i<orthoDimsPerToken;++i) {
-			tagsVec[i] = 0;
-		}
-		int fn = orthoDims.get(tag);
-		tagsVec[fn] = 1;
-		return tagsVec;
+	public String svmVector (String[] tags, String[] tokens) {
+		MweFeatureVector vector = new MweFeatureVector();
+		svmVector(tags, tokens, vector);
+		return vector.toString();
 	}
 
-	public String svmVector (String[] tags, String[] tokens) {
-		StringBuffer svmVec = new StringBuffer();
-		
+	public void svmVector (String[] tags, String[] tokens, MweFeatureVector vector) {
+		vector.clear();
 		int tvl = tags.length;
 		for (int f=0;f<tvl;++f) {
 			int offset = f * featuresPerToken + 1;
-		  int[] tvec = tagsVector(tags[f]);
-			for (int i=0;i<tvec.length;++i) {
-				if (tvec[i]==1) {
-			    svmVec.append((i+offset));
-			    svmVec.append(':');
-			    svmVec.append(tvec[i]);
-			    svmVec.append(' ');
-				}
-		  }
+			vector.add(tagFeatureNo(tags[f]) + offset, 1);
 		}
 		
 		int offset = featuresPerToken * maxTokens;
 		for (int f=0;f<tvl;++f) {
       int fn = tokenFeatureNo (tokens[f], tags[f]);
-      if (fn >0) {
-			  svmVec.append((fn+offset));
-			  svmVec.append(":1 ");
-      }
+      if (fn >0) vector.add(fn + offset, 1);
 		}
-		
-		return svmVec.toString();
 	}
 
 	public String svmVector (String[] tags, String[] tokens, String[] orthographics) {
-		StringBuffer svmVec = new StringBuffer();
-		
+		MweFeatureVector vector = new MweFeatureVector();
+		svmVector(tags, tokens, orthographics, vector);
+		return vector.toString();
+	}
+
+	/*
+	 * svmVector writes the features of the tag, orthographic and token sequence into vector (after clearing it),
+	 * in the same order as the string form: per position the POS tag and orthographic class, then the tokens
+	 */
+	public void svmVector (String[] tags, String[] tokens, String[] orthographics, MweFeatureVector vector) {
+		vector.clear();
 		int tvl = tags.length;
 		for (int f=0;f<tvl;++f) {
 			int offset = f * featuresPerToken + 1;
-		  int[] tvec = tagsVector(tags[f]);
-			for (int i=0;i<tvec.length;++i) {
-				if (tvec[i]==1) {
-			    svmVec.append((i+offset));
-			    svmVec.append(':');
-			    svmVec.append(tvec[i]);
-			    svmVec.append(' ');
-				}
-		  }
-		  int[] ovec = orthoVector (orthographics[f]);
+			vector.add(tagFeatureNo(tags[f]) + offset, 1);
 		  offset += posDimsPerToken;
-		  for (int i=0;i<ovec.length;++i) {
-				if (ovec[i]==1) {
-			    svmVec.append((i+offset));
-			    svmVec.append(':');
-			    svmVec.append(ovec[i]);
-			    svmVec.append(' ');
-				}
-		  }
+			vector.add(orthoDims.get(orthographics[f]) + offset, 1);
 		}
 
 		int offset = featuresPerToken * maxTokens;
 		for (int f=0;f<tokens.length;++f) {
       int fn = tokenFeatureNo (tokens[f], tags[f]);
-      if (fn > 0) {
-			  svmVec.append((fn+offset));
-			  svmVec.append(":1 ");
-      }
+      if (fn > 0) vector.add(fn + offset, 1);
 		}
-		
-		return svmVec.toString();
 	}
 }
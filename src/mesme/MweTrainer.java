@@ -0,0 +1,15 @@
+package mesme;
+
+import libsvm.*;
+
+/*
+ * MweTrainer trains an MWE model from labelled vectors, for MweActiveLearner's retraining (svmTrain and
+ * retrainInBackground). The vectors are read straight from a MweTrainingStore, which train must not change.
+ * The model it returns is saved with svm.svm_save_model, so it is loadable by loadModel, and must carry
+ * probA/probB for probability estimates. train returns null if no model can be trained from the data.
+ * MweLibsvmTrainer (the default) uses libsvm's SMO solver; MweLinearTrainer is a much faster dual coordinate
+ * descent solver for linear models.
+ */
+public interface MweTrainer {
+	public svm_model train (MweTrainingStore data);
+}
@@ -0,0 +1,109 @@
+package mesme;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import libsvm.*;
+
+/*
+ * MweTrainingBenchmark compares the trainers on a file of exported training vectors (SVM light format, see
+ * MweActiveLearner.exportTrainingData): libsvm's SMO against dual coordinate descent with the hinge (L1) and
+ * squared hinge (L2) loss. For each it reports the wall time of train (best of the runs), the peak heap used
+ * above the heap in use before training, the training accuracy, the share of predictions that agree with the
+ * libsvm model and the largest difference in the first class probability. Calibration is included in every
+ * time, as the learner always trains with probabilities.
+ * Usage: MweTrainingBenchmark vectorFilename [runs (3)]
+ */
+public class MweTrainingBenchmark {
+
+	private static long heapUsed () {
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) used += pool.getUsage().getUsed();
+		}
+		return used;
+	}
+
+	private static long peakHeapUsed () {
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) used += pool.getPeakUsage().getUsed();
+		}
+		return used;
+	}
+
+	private static void resetPeaks () {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+		}
+	}
+
+	private static void settle () {
+		for (int i=0;i<3;++i) System.gc();
+	}
+
+	/*
+	 * run trains runs times, returning the model of the last run, and fills result with the best wall time in
+	 * milliseconds and the largest peak heap growth in bytes
+	 */
+	private static svm_model run (MweTrainer trainer, MweTrainingStore data, int runs, double[] result) {
+		svm_model model = null;
+		result[0] = Double.MAX_VALUE;
+		result[1] = 0;
+		for (int r=0;r<runs;++r) {
+			model = null;
+			settle();
+			long before = heapUsed();
+			resetPeaks();
+			long start = System.nanoTime();
+			model = trainer.train(data);
+			long nanos = System.nanoTime() - start;
+			result[0] = Math.min(result[0], nanos / 1e6);
+			result[1] = Math.max(result[1], peakHeapUsed() - before); // pools peak at different times, so an upper bound
+		}
+		return model;
+	}
+
+	public static void main (String args[]) {
+		if (args.length < 1) {
+			System.err.println("Usage: MweTrainingBenchmark vectorFilename [runs]");
+			System.exit(-1);
+		}
+		int runs = 3;
+		if (args.length > 1) runs = Integer.parseInt(args[1]);
+		MweTrainingStore data = MweTrainingStore.read(args[0]);
+		if (data == null) System.exit(-1);
+		svm.svm_set_print_string_function(s -> {}); // libsvm's progress dots would swamp the report
+		System.out.println(data.size()+" vectors, "+data.getFeatureCount()+" features, stored in "+data.getMemoryBytes()+" bytes");
+		MweFeatureVector vector = new MweFeatureVector();
+
+		String[] names = {"libsvm", "dcd-l1", "dcd-l2"};
+		MweTrainer[] trainers = {new MweLibsvmTrainer(), new MweLinearTrainer(MweLinearTrainer.L1_LOSS, 1), new MweLinearTrainer(MweLinearTrainer.L2_LOSS, 1)};
+		MweLinearModel reference = null;
+		System.out.println("TRAINER\tMILLIS\tPEAK HEAP MB\tACCURACY\tAGREEMENT\tMAX PROB DIFF");
+		for (int t=0;t<trainers.length;++t) {
+			double[] result = new double[2];
+			svm_model model = run(trainers[t], data, runs, result);
+			MweLinearModel linear = MweLinearModel.fromModel(model);
+			if (linear == null) {
+				System.out.println(names[t]+"\tno usable model");
+				continue;
+			}
+			if (reference == null) reference = linear;
+			double[] p = new double[2];
+			double[] q = new double[2];
+			int correct = 0, agree = 0;
+			double maxDiff = 0;
+			for (int i=0;i<data.size();++i) {
+				int truth = data.getRow(i, vector);
+				double label = linear.predictProbability(vector.getIndices(), vector.getValues(), vector.size(), p);
+				if (label == truth) correct++;
+				if (reference.predictProbability(vector.getIndices(), vector.getValues(), vector.size(), q) == label) agree++;
+				maxDiff = Math.max(maxDiff, Math.abs(p[0] - q[0]));
+			}
+			System.out.println(names[t]+"\t"+String.format("%.1f", result[0])+"\t"+String.format("%.1f", result[1] / 1048576.0)+"\t"
+					+String.format("%.4f", (double) correct / data.size())+"\t"+String.format("%.4f", (double) agree / data.size())+"\t"+String.format("%.3f", maxDiff));
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package mesme;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/*
+ * MweTrainingBuffer holds the training data of one model up to a fixed number of rows, so a long running
+ * learner's heap use and retraining time stay the same however many samples it has seen. Until it is full
+ * every sample is kept. Once full, each class is given an equal share of the rows, so a rare class (usually
+ * the positives) is never swamped:
+ *   a sample of a class holding less than its share replaces a random row of the class holding the most
+ *   a sample of a class holding its share or more replaces one of that class's own rows, chosen by sampling:
+ *     RESERVOIR  reservoir sampling, so the rows are a uniform sample of every sample of the class seen so far
+ *     RECENT     always a random row, so rows age out exponentially and recent samples are favoured
+ * A class may use rows another class does not need, until that class's samples arrive. Capacity 0 keeps every
+ * sample. The rows are packed in a MweTrainingStore; snapshot copies them for training.
+ */
+public class MweTrainingBuffer {
+	public static final int RESERVOIR = 0;
+	public static final int RECENT = 1;
+
+	// the rows of the store holding one class's samples
+	private static class ClassRows {
+		final int label;
+		int[] rows = new int[16];
+		int count = 0;
+		long seen = 0;
+
+		ClassRows (int label) {
+			this.label = label;
+		}
+
+		void add (int row) {
+			if (count == rows.length) {
+				int[] r = new int[count * 2];
+				System.arraycopy(rows, 0, r, 0, count);
+				rows = r;
+			}
+			rows[count++] = row;
+		}
+
+		int removeAt (int position) {
+			int row = rows[position];
+			rows[position] = rows[--count];
+			return row;
+		}
+	}
+
+	private MweTrainingStore store = new MweTrainingStore();
+	private HashMap<Integer,ClassRows> classes = new HashMap<Integer,ClassRows>();
+	private int capacity;
+	private int sampling;
+	private Random random = new Random();
+	private long seen = 0;
+	private long replaced = 0;
+
+	public MweTrainingBuffer (int capacity, int sampling) {
+		this.capacity = Math.max(0, capacity);
+		setSampling(sampling);
+	}
+
+	public synchronized void setSampling (int sampling) {
+		if (sampling == RESERVOIR || sampling == RECENT) this.sampling = sampling;
+	}
+
+	public synchronized int getSampling () {
+		return sampling;
+	}
+
+	public synchronized int getCapacity () {
+		return capacity;
+	}
+
+	/*
+	 * setCapacity changes the number of rows kept; if the buffer holds more, rows are dropped at random from
+	 * the classes holding the most until it fits
+	 */
+	public synchronized void setCapacity (int capacity) {
+		this.capacity = Math.max(0, capacity);
+		if (this.capacity == 0 || store.size() <= this.capacity) return;
+		HashMap<ClassRows,Integer> keep = new HashMap<ClassRows,Integer>();
+		for (ClassRows c : classes.values()) keep.put(c, c.count);
+		for (int excess=store.size()-this.capacity;excess>0;--excess) {
+			ClassRows largest = null;
+			for (ClassRows c : classes.values()) if (largest == null || keep.get(c) > keep.get(largest)) largest = c;
+			keep.put(largest, keep.get(largest) - 1);
+		}
+		boolean[] kept = new boolean[store.size()];
+		for (ClassRows c : classes.values()) {
+			for (int k=0;k<keep.get(c);++k) kept[c.removeAt(random.nextInt(c.count))] = true;
+		}
+		MweTrainingStore smaller = new MweTrainingStore(this.capacity, store.getFeatureCount());
+		for (ClassRows c : classes.values()) c.count = 0;
+		for (int row=0;row<kept.length;++row) {
+			if (!kept[row]) continue;
+			classes.get(store.getLabel(row)).add(smaller.size());
+			smaller.copyRow(store, row);
+		}
+		store = smaller;
+	}
+
+	/*
+	 * add offers a labelled sample to the buffer, returning whether it was kept
+	 */
+	public synchronized boolean add (int label, int[] indices, double[] values, int count) {
+		ClassRows c = classes.get(label);
+		if (c == null) {
+			c = new ClassRows(label);
+			classes.put(label, c);
+		}
+		c.seen++;
+		seen++;
+		if (capacity == 0 || store.size() < capacity) {
+			c.add(store.size());
+			store.add(label, indices, values, count);
+			return true;
+		}
+		int share = Math.max(1, capacity / classes.size());
+		int row;
+		if (c.count < share) { // take a row from the class holding the most
+			ClassRows largest = c;
+			for (ClassRows other : classes.values()) if (other.count > largest.count) largest = other;
+			row = largest.removeAt(random.nextInt(largest.count));
+			c.add(row);
+		} else if (sampling == RESERVOIR) {
+			long j = (long) (random.nextDouble() * c.seen);
+			if (j >= c.count) return false;
+			row = c.rows[(int) j];
+		} else row = c.rows[random.nextInt(c.count)];
+		store.replace(row, label, indices, values, count);
+		replaced++;
+		return true;
+	}
+
+	public boolean add (int label, MweFeatureVector vector) {
+		return add(label, vector.getIndices(), vector.getValues(), vector.size());
+	}
+
+	public synchronized int size () {
+		return store.size();
+	}
+
+	/*
+	 * getSeen is the number of samples offered, kept or not
+	 */
+	public synchronized long getSeen () {
+		return seen;
+	}
+
+	/*
+	 * getReplaced is the number of kept samples that replaced an older one
+	 */
+	public synchronized long getReplaced () {
+		return replaced;
+	}
+
+	/*
+	 * getClassCounts lists the rows held for each class, as {label, rows} pairs
+	 */
+	public synchronized int[][] getClassCounts () {
+		ArrayList<int[]> counts = new ArrayList<int[]>();
+		for (ClassRows c : classes.values()) counts.add(new int[] {c.label, c.count});
+		return counts.toArray(new int[counts.size()][]);
+	}
+
+	public synchronized long getMemoryBytes () {
+		return store.getMemoryBytes();
+	}
+
+	/*
+	 * snapshot returns a copy of the rows to train on while samples are still added
+	 */
+	public synchronized MweTrainingStore snapshot () {
+		return store.snapshot();
+	}
+}
@@ -0,0 +1,301 @@
+package mesme;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.StringTokenizer;
+
+import libsvm.*;
+
+/*
+ * MweTrainingStore holds labelled training vectors packed into primitive arrays: the feature indices of every
+ * row one after another in one int array, the offset where each row starts and each row's label. The features
+ * MweSvmVectorMaker generates are binary, so while every value is 1.0 no values are stored at all; the first
+ * other value adds a value array alongside the indices. A binary sample of n features costs about 4n + 8 bytes,
+ * against hundreds for a list of objects. Trainers read the arrays directly (see MweTrainer), and toProblem
+ * builds the svm_nodes libsvm needs only when it is used.
+ * Rows are kept in the order added, unless replaced (see MweTrainingBuffer). A replacement is written over the
+ * old row if it fits, otherwise after the last row, leaving the old features unused, so replacing never moves
+ * other rows. Unused features are dropped by packing the rows again once they outnumber the used ones, before
+ * the arrays would grow, and in a snapshot. Every method is synchronized, so one thread can add while another
+ * takes a snapshot to train on.
+ */
+public class MweTrainingStore {
+	private int[] indices;
+	private double[] values = null; // null while every value is 1.0
+	private int[] starts;           // row r is indices[starts[r]] to indices[ends[r]-1]
+	private int[] ends;             // once packed, ends[r] == starts[r+1]
+	private int[] labels;
+	private int rows = 0;
+	private int used = 0;           // features up to the end of the last written row
+	private int unused = 0;         // features before that no row holds, left by replacements
+	private boolean packed = true;  // rows lie one after another in row order
+
+	public MweTrainingStore () {
+		this (64, 1024);
+	}
+
+	public MweTrainingStore (int rowCapacity, int featureCapacity) {
+		indices = new int[Math.max(1, featureCapacity)];
+		starts = new int[Math.max(1, rowCapacity) + 1];
+		ends = new int[Math.max(1, rowCapacity)];
+		labels = new int[Math.max(1, rowCapacity)];
+	}
+
+	public synchronized void add (int label, int[] rowIndices, double[] rowValues, int count) {
+		if (rows + 1 == labels.length) {
+			labels = Arrays.copyOf(labels, labels.length * 2);
+			starts = Arrays.copyOf(starts, labels.length + 1);
+			ends = Arrays.copyOf(ends, labels.length);
+		}
+		ensureCapacity(count);
+		starts[rows] = used;
+		put(used, rowIndices, rowValues, count);
+		used += count;
+		ends[rows] = used;
+		labels[rows] = label;
+		starts[++rows] = used;
+	}
+
+	public void add (int label, MweFeatureVector vector) {
+		add(label, vector.getIndices(), vector.getValues(), vector.size());
+	}
+
+	/*
+	 * replace overwrites a row with another sample, in place if it is no longer, otherwise after the last row
+	 */
+	public synchronized void replace (int row, int label, int[] rowIndices, double[] rowValues, int count) {
+		int length = ends[row] - starts[row];
+		if (count <= length) {
+			put(starts[row], rowIndices, rowValues, count);
+			ends[row] = starts[row] + count;
+			if (count < length) {
+				unused += length - count;
+				packed = false;
+			}
+		} else {
+			ensureCapacity(count); // may pack, moving the row
+			unused += ends[row] - starts[row];
+			starts[row] = used;
+			put(used, rowIndices, rowValues, count);
+			used += count;
+			ends[row] = used;
+			starts[rows] = used;
+			packed = false;
+		}
+		labels[row] = label;
+		if (unused > used - unused) pack(indices.length);
+	}
+
+	// put writes a row's features from position begin, adding the value array on the first value other than 1.0
+	private void put (int begin, int[] rowIndices, double[] rowValues, int count) {
+		for (int i=0;i<count;++i) {
+			indices[begin + i] = rowIndices[i];
+			double value = rowValues != null ? rowValues[i] : 1.0;
+			if (values == null && value != 1.0) {
+				values = new double[indices.length];
+				Arrays.fill(values, 1.0);
+			}
+			if (values != null) values[begin + i] = value;
+		}
+	}
+
+	// ensureCapacity makes room for count more features after the last row, packing the rows if any are unused
+	private void ensureCapacity (int count) {
+		if (used + count <= indices.length) return;
+		int needed = used - unused + count;
+		int capacity = needed > indices.length ? Math.max(indices.length * 2, needed) : indices.length;
+		if (!packed) {
+			pack(capacity);
+			return;
+		}
+		indices = Arrays.copyOf(indices, capacity);
+		if (values != null) values = Arrays.copyOf(values, capacity);
+	}
+
+	// pack copies the rows, in row order with nothing between them, into new arrays of the given capacity
+	private void pack (int capacity) {
+		int[] packedIndices = new int[Math.max(1, capacity)];
+		double[] packedValues = values != null ? new double[packedIndices.length] : null;
+		int n = 0;
+		for (int r=0;r<rows;++r) {
+			int length = ends[r] - starts[r];
+			System.arraycopy(indices, starts[r], packedIndices, n, length);
+			if (values != null) System.arraycopy(values, starts[r], packedValues, n, length);
+			starts[r] = n;
+			n += length;
+			ends[r] = n;
+		}
+		starts[rows] = n;
+		indices = packedIndices;
+		values = packedValues;
+		used = n;
+		unused = 0;
+		packed = true;
+	}
+
+	/*
+	 * copyRow adds a row of another store to this one
+	 */
+	synchronized void copyRow (MweTrainingStore from, int row) {
+		int begin = from.starts[row];
+		int count = from.ends[row] - begin;
+		add(from.labels[row], Arrays.copyOfRange(from.indices, begin, begin + count), from.values != null ? Arrays.copyOfRange(from.values, begin, begin + count) : null, count);
+	}
+
+	public synchronized int size () {
+		return rows;
+	}
+
+	public synchronized int getFeatureCount () {
+		return used - unused;
+	}
+
+	/*
+	 * isBinary is true if every stored value is 1.0, so no values are held
+	 */
+	public synchronized boolean isBinary () {
+		return values == null;
+	}
+
+	public synchronized int getLabel (int row) {
+		return labels[row];
+	}
+
+	/*
+	 * getRow fills vector with the features of a row and returns its label
+	 */
+	public synchronized int getRow (int row, MweFeatureVector vector) {
+		vector.clear();
+		for (int k=starts[row];k<ends[row];++k) vector.add(indices[k], values != null ? values[k] : 1.0);
+		return labels[row];
+	}
+
+	/*
+	 * The arrays are shared, not copied, and packed so row r is indices[starts[r]] to indices[starts[r+1]-1]; use
+	 * them from a snapshot, which no other thread changes
+	 */
+	synchronized int[] getIndices () {
+		if (!packed) pack(indices.length);
+		return indices;
+	}
+
+	synchronized double[] getValues () {
+		if (!packed) pack(indices.length);
+		return values;
+	}
+
+	synchronized int[] getStarts () {
+		if (!packed) pack(indices.length);
+		return starts;
+	}
+
+	synchronized int[] getLabels () {
+		return labels;
+	}
+
+	/*
+	 * getMemoryBytes is the size of the arrays holding the rows (not counting spare capacity)
+	 */
+	public synchronized long getMemoryBytes () {
+		long features = used - unused;
+		return features * (values != null ? 12 : 4) + rows * 12L;
+	}
+
+	public synchronized void clear () {
+		rows = 0;
+		used = 0;
+		unused = 0;
+		packed = true;
+		starts[0] = 0;
+		values = null;
+	}
+
+	/*
+	 * snapshot returns a copy of the rows, trimmed to size, to train on while more rows are added here
+	 */
+	public synchronized MweTrainingStore snapshot () {
+		MweTrainingStore copy = new MweTrainingStore(1, 1);
+		copy.indices = indices;
+		copy.values = values;
+		copy.starts = Arrays.copyOf(starts, rows + 2);
+		copy.ends = Arrays.copyOf(ends, rows + 1);
+		copy.labels = Arrays.copyOf(labels, rows + 1);
+		copy.rows = rows;
+		copy.used = used;
+		copy.unused = unused;
+		copy.packed = packed;
+		copy.pack(used - unused);
+		return copy;
+	}
+
+	/*
+	 * toProblem builds the rows as a libsvm problem
+	 */
+	public synchronized svm_problem toProblem () {
+		svm_problem problem = new svm_problem();
+		problem.l = rows;
+		problem.y = new double[rows];
+		problem.x = new svm_node[rows][];
+		for (int r=0;r<rows;++r) {
+			problem.y[r] = labels[r];
+			problem.x[r] = new svm_node[ends[r] - starts[r]];
+			for (int k=starts[r];k<ends[r];++k) {
+				svm_node node = new svm_node();
+				node.index = indices[k];
+				node.value = values != null ? values[k] : 1.0;
+				problem.x[r][k - starts[r]] = node;
+			}
+		}
+		return problem;
+	}
+
+	/*
+	 * write saves the rows in SVM light format, "label index:value ...". Returns false if it can not be written
+	 */
+	public synchronized boolean write (String vectorFilename) {
+		try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(vectorFilename)))) {
+			for (int r=0;r<rows;++r) {
+				StringBuffer line = new StringBuffer();
+				line.append(labels[r]);
+				for (int k=starts[r];k<ends[r];++k) line.append(' ').append(indices[k]).append(':').append(values != null ? values[k] : 1.0);
+				out.println(line);
+			}
+			return !out.checkError();
+		} catch (IOException e) {
+			System.err.println("Can not write "+vectorFilename);
+			return false;
+		}
+	}
+
+	/*
+	 * read loads a file in SVM light format, or returns null if it can not be read
+	 */
+	public static MweTrainingStore read (String vectorFilename) {
+		MweTrainingStore store = new MweTrainingStore();
+		MweFeatureVector vector = new MweFeatureVector();
+		try (BufferedReader in = new BufferedReader(new FileReader(vectorFilename))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				StringTokenizer points = new StringTokenizer(line, ": \t");
+				if (!points.hasMoreTokens()) continue;
+				int label = (int) Double.parseDouble(points.nextToken());
+				vector.clear();
+				while (points.hasMoreTokens()) {
+					int index = Integer.parseInt(points.nextToken());
+					double value = points.hasMoreTokens() ? Double.parseDouble(points.nextToken()) : 0;
+					vector.add(index, value);
+				}
+				store.add(label, vector);
+			}
+			return store;
+		} catch (IOException | NumberFormatException e) {
+			System.err.println("Can not read vectors from "+vectorFilename);
+			return null;
+		}
+	}
+}
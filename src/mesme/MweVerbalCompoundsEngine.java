@@ -0,0 +1,375 @@
+package mesme;
+
+/*
+ * Generated by MweEngineGenerator from MweEngineDefinition.englishVerbalCompounds - do not edit.
+ * A 12 state, 20 tag column engine with each transition compiled into a nested switch.
+ */
+public final class MweVerbalCompoundsEngine extends MweEngineCursor {
+	public static final int TABLE_HASH = 656056719;
+
+	public MweVerbalCompoundsEngine () {
+		this (MweAutomaton.englishVerbalCompounds());
+	}
+
+	public MweVerbalCompoundsEngine (MweAutomaton engine) {
+		super (engine);
+		if (!matches(engine)) System.err.println("MweVerbalCompoundsEngine was generated from a different engine definition");
+	}
+
+	/*
+	 * matches is true if the automaton has the tables this class was generated from
+	 */
+	public static boolean matches (MweAutomaton engine) {
+		return engine.tableHash() == TABLE_HASH;
+	}
+
+	public MweEngineCursor newCursor () {
+		return new MweVerbalCompoundsEngine(automaton);
+	}
+
+	public void stepEngine (int tagID, String token, int indexPoint, int tagNo) {
+		int next;
+		switch (currentState) {
+		case 0 : // STOP
+			switch (tagID) {
+			case 1 : // VB
+				clearAdd(token, indexPoint, tagNo);
+				next = 1; // VERB
+				break;
+			default :
+				clearChunk();
+				next = 0; // STOP
+				break;
+			}
+			break;
+		case 1 : // VERB
+			switch (tagID) {
+			case 1 : // VB
+				clearAdd(token, indexPoint, tagNo);
+				next = 1; // VERB
+				break;
+			case 2 : // NN
+			case 3 : // CD
+			case 4 : // JJ
+			case 5 : // JJR
+			case 6 : // JJS
+				addToken(token, indexPoint, tagNo);
+				next = 2; // NOUN
+				break;
+			case 7 : // PRP
+				addToken(token, indexPoint, tagNo);
+				next = 3; // VBPRP
+				break;
+			case 8 : // PRP$
+				addToken(token, indexPoint, tagNo);
+				next = 4; // VBPRP$
+				break;
+			case 9 : // DT
+				addToken(token, indexPoint, tagNo);
+				next = 5; // VBDT
+				break;
+			case 10 : // RP
+				addToken(token, indexPoint, tagNo);
+				next = 6; // RP
+				break;
+			case 11 : // RB
+				addToken(token, indexPoint, tagNo);
+				next = 7; // RB
+				break;
+			case 12 : // TO
+				addToken(token, indexPoint, tagNo);
+				next = 8; // TO
+				break;
+			case 13 : // IN
+				addToken(token, indexPoint, tagNo);
+				next = 9; // IN
+				break;
+			case 14 : // ''
+				continueChunk(token, tagNo);
+				next = 1; // VERB
+				break;
+			default :
+				clearChunk();
+				next = 0; // STOP
+				break;
+			}
+			break;
+		case 2 : // NOUN
+			switch (tagID) {
+			case 1 : // VB
+				clearAdd(token, indexPoint, tagNo);
+				next = 1; // VERB
+				break;
+			case 2 : // NN
+				addToken(token, indexPoint, tagNo);
+				next = 2; // NOUN
+				break;
+			case 12 : // TO
+			case 13 : // IN
+			case 16 : // .
+			case 19 : // )
+				switch (priorTag) {
+				case 1 : // VB
+				case 2 : // NN
+				case 7 : // PRP
+				case 8 : // PRP$
+				case 10 : // RP
+				case 11 : // RB
+				case 12 : // TO
+				case 15 : // ,
+				case 16 : // .
+				case 17 : // NNP
+					setMweSubtypeClear();
+					break;
+				default :
+					clearChunk();
+					break;
+				}
+				next = 11; // PRIOR
+				break;
+			default :
+				clearChunk();
+				next = 0; // STOP
+				break;
+			}
+			break;
+		case 3 : // VBPRP
+			switch (tagID) {
+			case 1 : // VB
+				clearAdd(token, indexPoint, tagNo);
+				next = 1; // VERB
+				break;
+			case 10 : // RP
+			case 11 : // RB
+				addSetMweClear(token, indexPoint, tagNo);
+				next = 0; // STOP
+				break;
+			case 12 : // TO
+				setMweClear();
+				next = 0; // STOP
+				break;
+			default :
+				clearChunk();
+				next = 0; // STOP
+				break;
+			}
+			break;
+		case 4 : // VBPRP$
+			switch (tagID) {
+			case 1 : // VB
+				clearAdd(token, indexPoint, tagNo);
+				next = 1; // VERB
+				break;
+			case 2 : // NN
+			case 4 : // JJ
+				addToken(token, indexPoint, tagNo);
+				next = 2; // NOUN
+				break;
+			default :
+				clearChunk();
+				next = 0; // STOP
+				break;
+			}
+			break;
+		case 5 : // VBDT
+			switch (tagID) {
+			case 1 : // VB
+				clearAdd(token, indexPoint, tagNo);
+				next = 1; // VERB
+				break;
+			case 2 : // NN
+			case 4 : // JJ
+			case 5 : // JJR
+			case 6 : // JJS
+				addToken(token, indexPoint, tagNo);
+				next = 2; // NOUN
+				break;
+			case 14 : // ''
+				continueChunk(token, tagNo);
+				next = 5; // VBDT
+				break;
+			default :
+				clearChunk();
+				next = 0; // STOP
+				break;
+			}
+			break;
+		case 6 : // RP
+			switch (tagID) {
+			case 1 : // VB
+				clearAdd(token, indexPoint, tagNo);
+				next = 1; // VERB
+				break;
+			case 2 : // NN
+			case 10 : // RP
+			case 12 : // TO
+			case 13 : // IN
+			case 14 : // ''
+			case 15 : // ,
+			case 16 : // .
+			case 17 : // NNP
+			case 18 : // UH
+				setMweClear();
+				next = 0; // STOP
+				break;
+			case 7 : // PRP
+			case 8 : // PRP$
+			case 9 : // DT
+				setMweAdd(token, tagNo);
+				next = 10; // DT
+				break;
+			default :
+				clearChunk();
+				next = 0; // STOP
+				break;
+			}
+			break;
+		case 7 : // RB
+			switch (tagID) {
+			case 1 : // VB
+				clearAdd(token, indexPoint, tagNo);
+				next = 1; // VERB
+				break;
+			case 2 : // NN
+			case 12 : // TO
+			case 13 : // IN
+			case 14 : // ''
+			case 15 : // ,
+			case 16 : // .
+			case 17 : // NNP
+			case 18 : // UH
+				setMweClear();
+				next = 0; // STOP
+				break;
+			case 7 : // PRP
+			case 8 : // PRP$
+			case 9 : // DT
+				addToken(token, indexPoint, tagNo);
+				next = 10; // DT
+				break;
+			default :
+				clearChunk();
+				next = 0; // STOP
+				break;
+			}
+			break;
+		case 8 : // TO
+			switch (tagID) {
+			case 1 : // VB
+				clearAdd(token, indexPoint, tagNo);
+				next = 1; // VERB
+				break;
+			case 7 : // PRP
+				setMweAdd(token, tagNo);
+				next = 10; // DT
+				break;
+			case 9 : // DT
+				addToken(token, indexPoint, tagNo);
+				next = 10; // DT
+				break;
+			case 12 : // TO
+			case 15 : // ,
+			case 16 : // .
+				setMweClear();
+				next = 0; // STOP
+				break;
+			case 14 : // ''
+				continueChunk(token, tagNo);
+				next = 8; // TO
+				break;
+			default :
+				clearChunk();
+				next = 0; // STOP
+				break;
+			}
+			break;
+		case 9 : // IN
+			switch (tagID) {
+			case 1 : // VB
+				clearAdd(token, indexPoint, tagNo);
+				next = 1; // VERB
+				break;
+			case 2 : // NN
+				addToken(token, indexPoint, tagNo);
+				next = 2; // NOUN
+				break;
+			case 5 : // JJR
+			case 10 : // RP
+			case 11 : // RB
+			case 12 : // TO
+			case 13 : // IN
+			case 14 : // ''
+			case 15 : // ,
+			case 16 : // .
+				setMweClear();
+				next = 0; // STOP
+				break;
+			case 7 : // PRP
+			case 8 : // PRP$
+				next = 10; // DT
+				break;
+			case 9 : // DT
+				addToken(token, indexPoint, tagNo);
+				next = 10; // DT
+				break;
+			default :
+				clearChunk();
+				next = 0; // STOP
+				break;
+			}
+			break;
+		case 10 : // DT
+			switch (tagID) {
+			case 1 : // VB
+				clearAdd(token, indexPoint, tagNo);
+				next = 1; // VERB
+				break;
+			case 2 : // NN
+				addToken(token, indexPoint, tagNo);
+				next = 2; // NOUN
+				break;
+			case 14 : // ''
+				continueChunk(token, tagNo);
+				next = 10; // DT
+				break;
+			case 15 : // ,
+			case 16 : // .
+				setMweClear();
+				next = 0; // STOP
+				break;
+			default :
+				clearChunk();
+				next = 0; // STOP
+				break;
+			}
+			break;
+		case 11 : // PRIOR
+			switch (tagID) {
+			case 1 : // VB
+			case 2 : // NN
+			case 7 : // PRP
+			case 8 : // PRP$
+			case 10 : // RP
+			case 11 : // RB
+			case 12 : // TO
+			case 15 : // ,
+			case 16 : // .
+			case 17 : // NNP
+				setMweSubtypeClear();
+				next = 0; // STOP
+				break;
+			default :
+				clearChunk();
+				next = 0; // STOP
+				break;
+			}
+			break;
+		default :
+			next = currentState;
+		}
+
+		// update parameters and move engine to next state
+		lastTag = tagID;
+		currentState = next;
+	}
+}